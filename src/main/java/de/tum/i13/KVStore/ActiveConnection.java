@@ -6,6 +6,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.List;
 
 /**
  * Created by chris on 19.10.15.
@@ -27,6 +28,16 @@ public class ActiveConnection implements AutoCloseable {
         output.flush();
     }
 
+    /**
+     * Writes all commands at once, the answers are read afterwards in the same order
+     */
+    public void writeAll(List<String> commands) {
+        for (String command : commands) {
+            output.write(command + "\r\n");
+        }
+        output.flush();
+    }
+
     public String readline() throws IOException {
         return input.readLine();
     }
@@ -4,7 +4,10 @@ import de.tum.i13.shared.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import static de.tum.i13.client.KVClient.LOGGER;
@@ -13,6 +16,11 @@ import static de.tum.i13.client.KVClient.LOGGER;
  * Library that implements the Messaging protocol from client to KVServer and responses
  */
 public class KVStore extends ConnectionManager {
+    /**
+     * Number of puts putAll sends before it reads their answers. The answers of a window fit into the socket
+     * buffers, so the server never blocks on writing them and keeps reading the requests.
+     */
+    static final int PIPELINE_WINDOW = 256;
 
     public KVStore() {
         super(null);
@@ -61,6 +69,81 @@ public class KVStore extends ConnectionManager {
         return new KVMessage(status, new String[]{key});
     }
 
+    /**
+     * Puts all KVs. The puts for the same server are pipelined, they are sent in windows of
+     * {@link #PIPELINE_WINDOW} puts and the answers of a window are read before the next one is sent, so a bulk
+     * load does not wait for a round trip per KV. KVs the server does not accept right now,
+     * e.g. because it is not responsible for them, are retried one by one with {@link #put}.
+     *
+     * @return the answers in the order of the KVs
+     */
+    public List<KVMessage> putAll(Map<String, String> kvs) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(kvs.entrySet());
+        KVMessage[] answers = new KVMessage[entries.size()];
+        if (clientSocket == null) {
+            LOGGER.info("No connection");
+            Arrays.fill(answers, new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Not", "Connected"}));
+            return Arrays.asList(answers);
+        }
+
+        // group the KVs by the server responsible for them, null if there is no metadata yet
+        Map<Pair<String, Integer>, List<Integer>> batches = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            String key = entries.get(i).getKey();
+            if (entries.get(i).getValue().length() > 120_000 || key.length() > 20) {
+                answers[i] = new KVMessage(MessagingProtocol.StatusType.PUT_ERROR, new String[]{"Arg", "length", "exceeded"});
+                continue;
+            }
+            String keyHash = KVHash.bytesToHex(KVHash.hashKey(key));
+            batches.computeIfAbsent(findServerForHash(keyHash, false), server -> new ArrayList<>()).add(i);
+        }
+
+        List<Integer> retries = new ArrayList<>();
+        for (List<Integer> batch : batches.values()) {
+            String firstKey = entries.get(batch.get(0)).getKey();
+            updateServerConnection(KVHash.bytesToHex(KVHash.hashKey(firstKey)), false);
+
+            for (int from = 0; from < batch.size(); from += PIPELINE_WINDOW) {
+                List<Integer> window = batch.subList(from, Math.min(batch.size(), from + PIPELINE_WINDOW));
+                List<String> lines = new ArrayList<>();
+                for (int i : window) {
+                    String value = entries.get(i).getValue().replace("\n", "\\n");
+                    lines.add(MessagingProtocol.StatusType.PUT.toString().toLowerCase() + " " + entries.get(i).getKey() + " " + value);
+                }
+                LOGGER.info("Sending " + lines.size() + " pipelined PUT requests");
+                clientSocket.writeAll(lines);
+
+                // all answers of the window are read before the next window is sent
+                for (int i : window) {
+                    String[] response;
+                    try {
+                        String line = clientSocket.readline();
+                        if (line == null) {
+                            throw new IOException();
+                        }
+                        response = line.split(" ");
+                    } catch (IOException e) {
+                        LOGGER.warning("Connection was lost during send");
+                        answers[i] = new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Connection", "lost"});
+                        continue;
+                    }
+                    String key = entries.get(i).getKey();
+                    switch (response[0]) {
+                        case "put_success" -> answers[i] = new KVMessage(KVMessage.StatusType.PUT_SUCCESS, new String[]{key});
+                        case "put_update" -> answers[i] = new KVMessage(KVMessage.StatusType.PUT_UPDATE, new String[]{key});
+                        case "put_error" -> answers[i] = new KVMessage(KVMessage.StatusType.PUT_ERROR, new String[]{key});
+                        default -> retries.add(i); // server_stopped, server_not_responsible or server_write_lock
+                    }
+                }
+            }
+        }
+
+        for (int i : retries) {
+            answers[i] = put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return Arrays.asList(answers);
+    }
+
     public KVMessage get(String key) {
         if (clientSocket == null) {
             LOGGER.info("No connection");
@@ -320,6 +403,31 @@ public class KVStore extends ConnectionManager {
         return new KVMessage(status, new String[]{key});
     }
 
+    /**
+     * Requests the statistics of the KVServer this client is currently connected to
+     *
+     * @return STATS_SUCCESS with name=value pairs | ERROR
+     */
+    public KVMessage stats() {
+        if (clientSocket == null) {
+            LOGGER.info("No connection");
+            return new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Not", "Connected"});
+        }
+        String[] response;
+        try {
+            response = sendMessage(MessagingProtocol.StatusType.STATS).split(" ");
+        } catch (IOException e) {
+            LOGGER.warning("Connection was lost during send");
+            return new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Connection", "lost"});
+        }
+        if (!response[0].equals("stats_success")) {
+            return new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Stats", "failed"});
+        }
+        String[] stats = new String[response.length - 1];
+        System.arraycopy(response, 1, stats, 0, stats.length);
+        return new KVMessage(MessagingProtocol.StatusType.STATS_SUCCESS, stats);
+    }
+
     /**
      * Sends a KVMessage of type keyrange to the server
      * The server responds with server_stopped or keyrange_success and the metadata
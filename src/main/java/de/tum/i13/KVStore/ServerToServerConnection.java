@@ -5,6 +5,8 @@ import de.tum.i13.ecs.StartECS;
 import de.tum.i13.shared.MessagingProtocol;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ServerToServerConnection extends ConnectionManager {
     public ServerToServerConnection(ActiveConnection clientSocket) {
@@ -43,6 +45,31 @@ public class ServerToServerConnection extends ConnectionManager {
         }
     }
 
+    /**
+     * Requests the digest of all KVs the connected server stores in the given range
+     *
+     * @return maps the hashed keys to the digest of their value, or null if the server could not provide a digest
+     */
+    public Map<String, String> keyDigest(String lowerBound, String upperBound) {
+        try {
+            String response = sendMessage(MessagingProtocol.StatusType.KEY_DIGEST, new String[]{lowerBound, upperBound});
+            if (response == null || !response.startsWith("key_digest_success")) {
+                return null;
+            }
+            Map<String, String> digest = new HashMap<>();
+            String[] entries = response.substring("key_digest_success".length()).trim().split(";");
+            for (String entry : entries) {
+                if (!entry.isEmpty()) {
+                    digest.put(entry.substring(0, entry.indexOf(':')), entry.substring(entry.indexOf(':') + 1));
+                }
+            }
+            return digest;
+        } catch (IOException e) {
+            StartKVServer.logger.warning("Requesting the key digest of " + clientSocket.getRemoteInfo() + " failed");
+            return null;
+        }
+    }
+
     public String messageECS(MessagingProtocol.StatusType command, String message) throws IOException {
         return sendMessage(command, new String[]{message});
     }
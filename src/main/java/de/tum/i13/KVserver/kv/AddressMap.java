@@ -0,0 +1,145 @@
+package de.tum.i13.KVserver.kv;
+
+/**
+ * AddressMap maps the keys of the {@link OffHeapCache} to the addresses of their chunks. It uses open addressing
+ * with the keys and the addresses in two parallel arrays, so an entry costs no object on the heap besides its key.
+ * Removed entries leave a marker in their slot, so the slots can be iterated while entries are removed.
+ */
+class AddressMap {
+    static final long ABSENT = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Marks a slot whose entry was removed, compared by identity
+     */
+    private static final String REMOVED = new String("removed");
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] addresses = new long[INITIAL_CAPACITY];
+    private int size;
+    /**
+     * Number of slots that hold an entry or a removed marker
+     */
+    private int used;
+
+    /**
+     * @return the address of the key, or {@link #ABSENT}
+     */
+    long get(Object key) {
+        int slot = find(key);
+        return slot == -1 ? ABSENT : addresses[slot];
+    }
+
+    boolean containsKey(Object key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * @return the previous address of the key, or {@link #ABSENT}
+     */
+    long put(String key, long address) {
+        int slot = find(key);
+        if (slot != -1) {
+            long oldAddress = addresses[slot];
+            addresses[slot] = address;
+            return oldAddress;
+        }
+        if ((used + 1) * 4 > keys.length * 3) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        slot = slot(key, mask);
+        while (keys[slot] != null && keys[slot] != REMOVED) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == null) {
+            used++;
+        }
+        keys[slot] = key;
+        addresses[slot] = address;
+        size++;
+        return ABSENT;
+    }
+
+    /**
+     * @return the address the key had, or {@link #ABSENT}
+     */
+    long remove(Object key) {
+        int slot = find(key);
+        if (slot == -1) {
+            return ABSENT;
+        }
+        removeAt(slot);
+        return addresses[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        keys = new String[INITIAL_CAPACITY];
+        addresses = new long[INITIAL_CAPACITY];
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * @return number of slots, the entries are iterated with {@link #keyAt} and {@link #addressAt}
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return the key in the slot, null if the slot holds no entry
+     */
+    String keyAt(int slot) {
+        String key = keys[slot];
+        return key == REMOVED ? null : key;
+    }
+
+    long addressAt(int slot) {
+        return addresses[slot];
+    }
+
+    void removeAt(int slot) {
+        keys[slot] = REMOVED;
+        size--;
+    }
+
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] != REMOVED && keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static int slot(Object key, int mask) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Moves the entries into arrays that are at most half full afterwards, the removed markers are dropped
+     */
+    private void resize() {
+        String[] oldKeys = keys;
+        long[] oldAddresses = addresses;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (size + 1) * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        addresses = new long[capacity];
+        size = 0;
+        used = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null && oldKeys[i] != REMOVED) {
+                put(oldKeys[i], oldAddresses[i]);
+            }
+        }
+    }
+}
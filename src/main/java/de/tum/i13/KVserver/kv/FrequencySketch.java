@@ -0,0 +1,86 @@
+package de.tum.i13.KVserver.kv;
+
+/**
+ * FrequencySketch estimates how often a key was used with a count-min sketch: every key increments one counter in
+ * each of four rows, the estimate is the smallest of these counters. The counters saturate at 15 and are all halved
+ * once the number of increments reaches ten times the width of a row, so the estimates follow the recent
+ * popularity of the keys instead of growing forever. The 4-bit counters are packed two per byte.
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97CB3127, 0xB7E15163, 0x5BD1E995, 0x85EBCA6B};
+
+    /**
+     * Counter i of a row is stored in the low nibble of byte i / 2 if i is even, in the high nibble otherwise
+     */
+    private byte[][] counters;
+    private int widthMask;
+    private int additions;
+    private int resetThreshold;
+
+    FrequencySketch() {
+        ensureCapacity(16);
+    }
+
+    /**
+     * Resizes the sketch for the given number of keys, which resets all counters
+     */
+    void ensureCapacity(int keys) {
+        int width = Integer.highestOneBit(Math.max(16, keys - 1) << 1);
+        if (counters != null && counters[0].length * 2 >= width) {
+            return;
+        }
+        counters = new byte[DEPTH][width / 2];
+        widthMask = width - 1;
+        resetThreshold = 10 * width;
+        additions = 0;
+    }
+
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int shift = (index & 1) << 2;
+            if (((counters[row][index >>> 1] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                counters[row][index >>> 1] += 1 << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= resetThreshold) {
+            reset();
+        }
+    }
+
+    int estimate(String key) {
+        int hash = spread(key.hashCode());
+        int estimate = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            estimate = Math.min(estimate, (counters[row][index >>> 1] >>> ((index & 1) << 2)) & MAX_COUNT);
+        }
+        return estimate;
+    }
+
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                // halves both counters, the bit shifted from the high into the low nibble is masked off
+                row[i] = (byte) ((row[i] >>> 1) & 0x77);
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        return (h ^ (h >>> 16)) & widthMask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -9,6 +9,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static de.tum.i13.client.KVClient.convertStrArrayToStr;
 
@@ -17,6 +18,7 @@ import static de.tum.i13.client.KVClient.convertStrArrayToStr;
  * put <key> <value>
  * get <key>
  * delete <key>
+ * stats
  * Failed operations return an ERROR message, else SUCCESS message is returned.
  * Other unknown commands return an Error message.
  */
@@ -109,7 +111,8 @@ public class KVCommandProcessor implements CommandProcessor {
                         // Shutdown hook Thread can not start new Threads apparently,
                         // took me a while to find that out
                         try {
-                            kvManager.transferKeys(commandArgs[1], Integer.parseInt(commandArgs[2]), false);
+                            // the predecessor joined, it takes over a part of this server's write range
+                            kvManager.transferKeys(commandArgs[1], Integer.parseInt(commandArgs[2]), false, true);
                             kvManager.write_lock = false; // After transfer is done, writelock can be removed
                             StartKVServer.logger.info("Write_lock lifted");
                         } catch (IOException ignored) {
@@ -137,11 +140,18 @@ public class KVCommandProcessor implements CommandProcessor {
             case "start_server" -> {
                 StartKVServer.logger.info("Server received go-ahead. Setting server_stopped to false");
                 kvManager.server_stopped = false; // The server adjusts its own range
+                kvManager.startWarmUp();
                 storeAnswer = new ECSMessage(ECSMessage.StatusType.ACK);
             }
             case "keyrange_read" -> {
                 storeAnswer = keyrange(true);
             }
+            case "key_digest" -> {
+                storeAnswer = keyDigest(commandArgs[1], commandArgs[2]);
+            }
+            case "stats" -> {
+                storeAnswer = stats();
+            }
             default -> storeAnswer = new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Unknown Command"});
         }
         return storeAnswer.toString() + "\r\n";
@@ -250,6 +260,36 @@ public class KVCommandProcessor implements CommandProcessor {
         return new KVMessage(KVMessage.StatusType.KEYRANGE_SUCCESS, new String[]{response.toString()});
     }
 
+    /**
+     * Lists the hashed key and value digest of every KV stored in the range, a server that transfers keys to this
+     * server uses it to skip the KVs that are already stored here (e.g. after a restart that kept the data)
+     *
+     * @return KEY_DIGEST_SUCCESS {key:digest;...} | ERROR
+     */
+    private KVMessage keyDigest(String lowerBound, String upperBound) {
+        try {
+            StringBuilder response = new StringBuilder();
+            for (Map.Entry<String, String> entry : kvManager.getKeyDigest(lowerBound, upperBound).entrySet()) {
+                response.append(entry.getKey()).append(':').append(entry.getValue()).append(';');
+            }
+            return new KVMessage(KVMessage.StatusType.KEY_DIGEST_SUCCESS, new String[]{response.toString()});
+        } catch (IOException e) {
+            StartKVServer.logger.severe("Could not create the key digest");
+            return new KVMessage(MessagingProtocol.StatusType.ERROR, new String[]{"Key", "digest", "failed"});
+        }
+    }
+
+    /**
+     * @return STATS_SUCCESS {name=value ...}
+     */
+    private KVMessage stats() {
+        List<String> stats = new ArrayList<>();
+        for (Map.Entry<String, String> entry : kvManager.getStats().entrySet()) {
+            stats.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return new KVMessage(KVMessage.StatusType.STATS_SUCCESS, stats.toArray(new String[0]));
+    }
+
     /**
      * @param metadata
      * @return
@@ -285,6 +325,7 @@ public class KVCommandProcessor implements CommandProcessor {
         } catch (IOException e) {
             StartKVServer.logger.severe("Replication failed");
         }
+        kvManager.startWarmUp(); // the read range may have grown
         return new ECSMessage(ECSMessage.StatusType.ACK);
     }
 
@@ -1,40 +1,126 @@
 package de.tum.i13.KVserver.kv;
 
 import de.tum.i13.KVStore.ServerToServerConnection;
-import de.tum.i13.KVserver.kv.persistence.PersistenceHandler;
+import de.tum.i13.KVserver.kv.persistence.StorageEngine;
+import de.tum.i13.KVserver.kv.persistence.WriteAheadLog;
 import de.tum.i13.KVserver.nio.StartKVServer;
 import de.tum.i13.shared.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * KVManager is responsible for handling the cache and accessing the database if a cache miss occurs.
  */
 public abstract class KVManager {
+    private static final int KEY_LOCK_STRIPES = 64;
+    static final int DEFAULT_MISS_CACHE_SIZE = 1000;
+    /**
+     * Bytes of a HashMap entry and of a String object without its content
+     */
+    static final int ENTRY_OVERHEAD = 48;
+    static final int STRING_OVERHEAD = 40;
+    /**
+     * Number of keys the strategies are sized for when the cache is limited by a memory budget, it is doubled
+     * whenever the cache holds that many keys and the budget has room for more
+     */
+    static final int INITIAL_BUDGETED_SIZE = 64;
+    /**
+     * The cache, the bookkeeping of the strategy, cachedBytes and dirtyKeys are guarded by cacheLock
+     */
     public Map<String, String> cache;
-    public boolean write_lock;
-    public boolean server_stopped;
+    public volatile boolean write_lock;
+    public volatile boolean server_stopped;
+    private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+    /**
+     * Requests for the same key are serialized by one of these locks, which is held while the write-ahead log,
+     * the cache and the persistenceHandler are updated. Requests for different keys only contend for cacheLock,
+     * which is never held while reading from disk.
+     */
+    private final ReentrantLock[] keyLocks = new ReentrantLock[KEY_LOCK_STRIPES];
     /**
-     * maxSize is the size of the cache
+     * maxSize is the size of the cache, with a memory budget it is the number of keys the strategies are sized for
      */
     protected int maxSize;
+    /**
+     * Memory budget of the cache in bytes, 0 if only the number of keys is limited
+     */
+    protected long maxMemory;
+    /**
+     * Estimated memory used by the keys and values in the cache
+     */
+    protected long cachedBytes;
+    /**
+     * Allocates the memory for the values if the cache is kept off the heap, null otherwise
+     */
+    private SlabAllocator offHeapAllocator;
+    /**
+     * Keys whose cached value was not written to the persistenceHandler yet
+     */
+    private Set<String> dirtyKeys;
+    /**
+     * Writes the dirty KVs that are evicted from the cache in the background
+     */
+    private final WriteBehindFlusher writeBehind;
+    /**
+     * Hashed keys that were recently requested but are not stored
+     */
+    private final MissCache missCache;
+    /**
+     * Hashed keys that were cached before the last flush, or before the last shutdown, the cache is refilled with
+     * them after the server was (re)started or its range changed
+     */
+    private volatile List<String> warmUpKeys = new ArrayList<>();
+    private boolean warmUpEnabled;
+    private final AtomicBoolean warmingUp = new AtomicBoolean();
+    /**
+     * Counters for the stats command. Evictions only happen while holding the write lock of the cache,
+     * so their counters are guarded by it.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder diskReads = new LongAdder();
+    private final LongAdder diskWrites = new LongAdder();
+    private long evictions;
+    private long evictionNanos;
     /**
      * Direct access to the database is delegated to the persistenceHandler
      */
-    protected PersistenceHandler persistenceHandler;
-    List<Range> writeRanges;
-    List<Range> replicationData; // Range this server can serve read-requests to (includes replications)
+    protected StorageEngine persistenceHandler;
+    /**
+     * Every write to the cache is recorded in the writeAheadLog first, so it survives a crash before being persisted
+     */
+    protected WriteAheadLog writeAheadLog;
+    /**
+     * Size of the writeAheadLog in bytes from which on the cache is checkpointed to the persistenceHandler
+     */
+    private long maxLogSize;
+    /**
+     * The ranges are replaced as a whole on every metadata update while requests are processed, so they are volatile
+     */
+    volatile List<Range> writeRanges;
+    volatile List<Range> replicationData; // Range this server can serve read-requests to (includes replications)
     /**
      * KVManager has the address of the ecs, since he needs to contact the pubsub service
      */
     private InetSocketAddress ecs;
-    private Range localWriteRange;
-    private Range localReadRange;
+    private volatile Range localWriteRange;
+    private volatile Range localReadRange;
 
     /**
      * The attribute saves the value of the retention time for the KVServer
@@ -44,6 +130,12 @@ public abstract class KVManager {
     public KVManager(int maxSize) {
         this.cache = new HashMap<>();
         this.maxSize = maxSize;
+        dirtyKeys = new HashSet<>();
+        writeBehind = new WriteBehindFlusher(this);
+        missCache = new MissCache(DEFAULT_MISS_CACHE_SIZE);
+        for (int i = 0; i < keyLocks.length; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
         writeRanges = new ArrayList<>();
         replicationData = new ArrayList<>();
         server_stopped = true;
@@ -103,10 +195,15 @@ public abstract class KVManager {
         this.writeRanges = writeRanges;
     }
 
-    public void setPersistenceHandler(PersistenceHandler persistenceHandler) {
+    public void setPersistenceHandler(StorageEngine persistenceHandler) {
         this.persistenceHandler = persistenceHandler;
     }
 
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog, long maxLogSize) {
+        this.writeAheadLog = writeAheadLog;
+        this.maxLogSize = maxLogSize;
+    }
+
     public int getRetentionTime() {
         return retentionTime;
     }
@@ -134,13 +231,25 @@ public abstract class KVManager {
             return new KVMessage(MessagingProtocol.StatusType.SERVER_NOT_RESPONSIBLE);
         }
         MessagingProtocol.StatusType responseStatus = MessagingProtocol.StatusType.PUT_SUCCESS;
-        String cacheValue = cache.get(hashedKey);
-        updatePut(hashedKey);
-        cache.put(hashedKey, value);
+        String cacheValue;
+        ReentrantLock keyLock = keyLock(hashedKey);
+        keyLock.lock();
+        try {
+            if (writeAheadLog != null) {
+                writeAheadLog.logPut(hashedKey, value);
+            }
+            missCache.remove(hashedKey);
+            cacheValue = cachePut(hashedKey, value, true);
+        } finally {
+            keyLock.unlock();
+        }
         if (cacheValue != null) { // cache hit
             responseStatus = KVMessage.StatusType.PUT_UPDATE;
             StartKVServer.logger.info("The system updated the existing key: " + hashedKey + " with the new value: " + value + " in the cache.");
         }
+        if (writeAheadLog != null && writeAheadLog.size() > maxLogSize) {
+            checkpoint();
+        }
 
         Pair<Pair<String, Integer>, Pair<String, Integer>> replicators = getSuccessors();
         if (replicators != null && !isHashed) {
@@ -193,23 +302,116 @@ public abstract class KVManager {
             return new KVMessage(MessagingProtocol.StatusType.SERVER_NOT_RESPONSIBLE);
         }
         KVMessage.StatusType responseStatus = KVMessage.StatusType.GET_SUCCESS;
-        String cacheValue = cache.get(hashKey);
-        if (cacheValue == null) { // cache miss
-            String dbValue = persistenceHandler.getFromDB(hashKey);
+        String cacheValue = getCached(hashKey);
+        if (cacheValue != null) { // key in cache, return value
+            hits.increment();
+            StartKVServer.logger.info("The system found the KVPair: " + hashKey + ": " + cacheValue + " in the cache.");
+            return new KVMessage(responseStatus, new String[]{key, cacheValue});
+        }
+        if (missCache.contains(hashKey)) {
+            misses.increment();
+            StartKVServer.logger.info("The key: " + hashKey + " requested by the client is known to be missing.");
+            return new KVMessage(KVMessage.StatusType.GET_ERROR, new String[]{key});
+        }
+        // cache miss, concurrent requests for the key wait until it is loaded
+        ReentrantLock keyLock = keyLock(hashKey);
+        keyLock.lock();
+        try {
+            cacheValue = getCached(hashKey);
+            if (cacheValue != null) {
+                hits.increment();
+                return new KVMessage(responseStatus, new String[]{key, cacheValue});
+            }
+            misses.increment();
+            String dbValue = loadIntoCache(hashKey);
             if (dbValue == null) { // db miss, key not present anywhere
                 StartKVServer.logger.warning("The key: " + hashKey + " requested by the client has no associated value in the database or cache.");
+                missCache.add(hashKey);
                 responseStatus = KVMessage.StatusType.GET_ERROR;
                 return new KVMessage(responseStatus, new String[]{key});
-            } else { // key only in db => load key into cache and return
-                cache.put(hashKey, dbValue);
-                updatePut(hashKey);
-                StartKVServer.logger.info("The system found the KVPair: " + hashKey + ": " + dbValue + " on disk.");
-                return new KVMessage(responseStatus, new String[]{key, dbValue});
-            }
-        } else { // key in cache, return value
-            updateGet(hashKey);
-            StartKVServer.logger.info("The system found the KVPair: " + hashKey + ": " + cacheValue + " in the cache.");
-            return new KVMessage(responseStatus, new String[]{key, cacheValue});
+            }
+            // key only in db => loaded into cache, return it
+            StartKVServer.logger.info("The system found the KVPair: " + hashKey + ": " + dbValue + " on disk.");
+            return new KVMessage(responseStatus, new String[]{key, dbValue});
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the KV from the pending writes or the persistenceHandler and caches it, the caller holds the key lock
+     *
+     * @return the value, null if the key is not stored
+     */
+    private String loadIntoCache(String hashKey) throws IOException {
+        String dbValue = writeBehind.getPending(hashKey);
+        if (dbValue == null) {
+            diskReads.increment();
+            dbValue = persistenceHandler.getFromDB(hashKey);
+        }
+        if (dbValue == null) {
+            return null;
+        }
+        cachePut(hashKey, dbValue, false);
+        return dbValue;
+    }
+
+    /**
+     * Caches the KV and evicts other KVs if the cache is full, the time spent on the evictions is recorded
+     *
+     * @param dirty true if the value is not stored by the persistenceHandler yet
+     * @return the previously cached value, null if the key was not cached
+     */
+    private String cachePut(String hashedKey, String value, boolean dirty) throws IOException {
+        String cacheValue;
+        cacheLock.writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            long evictionsBefore = evictions;
+            cacheValue = cache.get(hashedKey);
+            if (cacheValue == null && maxMemory > 0 && cache.size() >= maxSize
+                    && cachedBytes + entrySize(hashedKey, value) <= maxMemory) {
+                // the budget has room for the key, so the strategy must not evict by the number of keys
+                maxSize = maxSize > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : maxSize * 2;
+            }
+            updatePut(hashedKey);
+            cache.put(hashedKey, value);
+            if (dirty) {
+                dirtyKeys.add(hashedKey);
+            }
+            cachedBytes += entrySize(hashedKey, value);
+            if (cacheValue != null) {
+                cachedBytes -= entrySize(hashedKey, cacheValue);
+            }
+            evictOverBudget();
+            if (evictions != evictionsBefore) {
+                evictionNanos += System.nanoTime() - start;
+            }
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+        // the other requests can use the cache while this one writes the evicted KVs that piled up
+        writeBehind.relieve();
+        return cacheValue;
+    }
+
+    /**
+     * Looks the key up in the cache and counts the use for the strategy. Strategies that can count a use
+     * concurrently only need the read lock, so hits do not block each other.
+     *
+     * @return the cached value, null on a cache miss
+     */
+    private String getCached(String hashKey) {
+        Lock lock = concurrentUpdateGet() ? cacheLock.readLock() : cacheLock.writeLock();
+        lock.lock();
+        try {
+            String cacheValue = cache.get(hashKey);
+            if (cacheValue != null) {
+                updateGet(hashKey);
+            }
+            return cacheValue;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -231,15 +433,36 @@ public abstract class KVManager {
             return new KVMessage(MessagingProtocol.StatusType.SERVER_NOT_RESPONSIBLE);
         }
         KVMessage.StatusType responseStatus = KVMessage.StatusType.DELETE_SUCCESS;
-        String cacheValue = cache.remove(hashedKey);
-        updateDelete(hashedKey);
-        String dbKey = persistenceHandler.deleteFromDB(hashedKey);
-        if (cacheValue == null) {
-            if (dbKey == null) {
-                StartKVServer.logger.info("The key: " + hashedKey + " passed by the client doesn't exist in the database or cache.");
-                responseStatus = KVMessage.StatusType.DELETE_ERROR;
-                return new KVMessage(responseStatus, new String[]{key});
+        ReentrantLock keyLock = keyLock(hashedKey);
+        keyLock.lock();
+        try {
+            if (writeAheadLog != null) {
+                writeAheadLog.logDelete(hashedKey);
             }
+            String cacheValue;
+            cacheLock.writeLock().lock();
+            try {
+                cacheValue = cache.remove(hashedKey);
+                if (cacheValue != null) {
+                    cachedBytes -= entrySize(hashedKey, cacheValue);
+                }
+                updateDelete(hashedKey);
+                dirtyKeys.remove(hashedKey);
+            } finally {
+                cacheLock.writeLock().unlock();
+            }
+            boolean pendingWrite = writeBehind.discard(hashedKey);
+            String dbKey = persistenceHandler.deleteFromDB(hashedKey);
+            missCache.add(hashedKey);
+            if (cacheValue == null && !pendingWrite) {
+                if (dbKey == null) {
+                    StartKVServer.logger.info("The key: " + hashedKey + " passed by the client doesn't exist in the database or cache.");
+                    responseStatus = KVMessage.StatusType.DELETE_ERROR;
+                    return new KVMessage(responseStatus, new String[]{key});
+                }
+            }
+        } finally {
+            keyLock.unlock();
         }
         StartKVServer.logger.info("The system deleted the key: " + hashedKey + " and its paired value from the database");
         Pair<Pair<String, Integer>, Pair<String, Integer>> replicators = getSuccessors();
@@ -254,14 +477,238 @@ public abstract class KVManager {
      * Afterwards, it initates a new cache
      */
     public void flushCacheToDisk() throws IOException {
-        for (Map.Entry<String, String> entry : cache.entrySet()) {
-            if (persistenceHandler.getFromDB(entry.getKey()) == null) {
-                persistenceHandler.insertInDB(entry.getKey(), entry.getValue());
-            } else {
-                persistenceHandler.updateInDB(entry.getKey(), entry.getValue());
+        lockAll();
+        try {
+            persistCache();
+            if (!cache.isEmpty()) {
+                warmUpKeys = new ArrayList<>(cache.keySet());
+            }
+            Map<String, String> flushed = cache;
+            cache = newCache();
+            flushed.clear(); // returns the off-heap memory of the values
+            dirtyKeys = new HashSet<>();
+            cachedBytes = 0;
+            updateFlush();
+            clearWriteAheadLog();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Writes all KVs in the cache to the persistence file but keeps them cached. Afterwards the write-ahead log
+     * is not needed to restore them anymore and is cleared.
+     */
+    public void checkpoint() throws IOException {
+        lockAll();
+        try {
+            persistCache();
+            clearWriteAheadLog();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Waits for all running requests, so no write is logged in the write-ahead log but missing in the cache
+     * when the log is cleared
+     */
+    private void lockAll() {
+        for (ReentrantLock keyLock : keyLocks) {
+            keyLock.lock();
+        }
+        cacheLock.writeLock().lock();
+    }
+
+    private void unlockAll() {
+        cacheLock.writeLock().unlock();
+        for (int i = keyLocks.length - 1; i >= 0; i--) {
+            keyLocks[i].unlock();
+        }
+    }
+
+    private ReentrantLock keyLock(String hashedKey) {
+        return keyLocks[Math.floorMod(hashedKey.hashCode(), keyLocks.length)];
+    }
+
+    /**
+     * Writes the dirty KVs of the cache, the clean ones are already stored. The pending writes of evicted KVs go
+     * first, they may hold older values of the same keys.
+     */
+    private void persistCache() throws IOException {
+        writeBehind.flush();
+        for (String key : dirtyKeys) {
+            String value = cache.get(key);
+            if (value != null) {
+                writeToDisk(key, value);
+            }
+        }
+        dirtyKeys = new HashSet<>();
+    }
+
+    /**
+     * Writes the evicted KVs that the write-behind thread did not write yet, so the persistenceHandler can be read
+     * directly afterwards
+     */
+    public void flushPendingWrites() throws IOException {
+        writeBehind.flush();
+    }
+
+    /**
+     * Starts the background thread that writes evicted KVs
+     *
+     * @param maxPending number of evicted KVs that may wait to be written, beyond that the evicting request writes
+     */
+    public void startWriteBehind(int maxPending) {
+        writeBehind.start(maxPending);
+    }
+
+    public void setWarmUp(boolean warmUpEnabled) {
+        this.warmUpEnabled = warmUpEnabled;
+    }
+
+    /**
+     * Reads the keys to warm up the cache with, as written by {@link #saveWarmUpKeys(Path)}
+     */
+    public void loadWarmUpKeys(Path file) throws IOException {
+        if (Files.exists(file)) {
+            warmUpKeys = Files.readAllLines(file);
+        }
+    }
+
+    /**
+     * Writes the keys that are currently cached, or were cached before the last flush, one per line
+     */
+    public void saveWarmUpKeys(Path file) throws IOException {
+        List<String> keys;
+        cacheLock.readLock().lock();
+        try {
+            keys = cache.isEmpty() ? warmUpKeys : new ArrayList<>(cache.keySet());
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+        Files.write(file, keys);
+    }
+
+    /**
+     * Refills the cache in the background with the warm-up keys in the read range of this server, so the first
+     * requests after a start or a change of the ranges do not all read from disk. Stops once the cache is full.
+     */
+    public void startWarmUp() {
+        if (!warmUpEnabled || !warmingUp.compareAndSet(false, true)) {
+            return;
+        }
+        Thread warmUp = new Thread(() -> {
+            try {
+                int loaded = warmUp();
+                StartKVServer.logger.info("Warmed up the cache with " + loaded + " KVs");
+            } catch (IOException e) {
+                StartKVServer.logger.warning("Could not warm up the cache");
+            } finally {
+                warmingUp.set(false);
+            }
+        }, "warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    /**
+     * @return number of KVs that were loaded into the cache
+     */
+    int warmUp() throws IOException {
+        int loaded = 0;
+        for (String hashKey : warmUpKeys) {
+            if (cacheFull()) {
+                break;
+            }
+            if (localReadRange == null || !inReadRange(hashKey)) {
+                continue;
+            }
+            ReentrantLock keyLock = keyLock(hashKey);
+            keyLock.lock();
+            try {
+                if (!isCached(hashKey) && loadIntoCache(hashKey) != null) {
+                    loaded++;
+                }
+            } finally {
+                keyLock.unlock();
+            }
+        }
+        return loaded;
+    }
+
+    private boolean cacheFull() {
+        cacheLock.readLock().lock();
+        try {
+            return maxMemory > 0 ? cachedBytes >= maxMemory : cache.size() >= maxSize;
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param missCacheSize number of missing keys that are remembered, 0 to always ask the persistenceHandler
+     */
+    public void setMissCacheSize(int missCacheSize) {
+        missCache.setCapacity(missCacheSize);
+    }
+
+    /**
+     * Writes a KV that leaves the cache to the persistenceHandler. Whether the key is already stored is looked up
+     * first, without reading the stored value.
+     */
+    protected void writeToDisk(String key, String value) throws IOException {
+        diskWrites.increment();
+        if (!persistenceHandler.containsInDB(key)) {
+            persistenceHandler.insertInDB(key, value);
+            StartKVServer.logger.info("Wrote " + key + ": " + value + " into database");
+        } else {
+            persistenceHandler.updateInDB(key, value);
+            StartKVServer.logger.info("Updated " + key + " in database");
+        }
+    }
+
+    /**
+     * Removes the key from the cache. A dirty value is handed to the write-behind thread, a clean one is dropped.
+     */
+    protected void evict(String key) throws IOException {
+        String value = cache.remove(key);
+        if (value != null) {
+            evictions++;
+            cachedBytes -= entrySize(key, value);
+            if (dirtyKeys.remove(key)) {
+                writeBehind.schedule(key, value);
+            }
+        }
+    }
+
+    /**
+     * Evicts keys in the order of the strategy until the cache fits into its memory budget.
+     * The last key is always kept, even if it exceeds the budget on its own.
+     */
+    private void evictOverBudget() throws IOException {
+        while (maxMemory > 0 && cachedBytes > maxMemory && cache.size() > 1) {
+            String victim = removeVictim();
+            if (victim == null) {
+                return;
             }
+            evict(victim);
+        }
+    }
+
+    /**
+     * Estimates the memory a KV takes in the cache: the entry of the map, the two String objects and their
+     * contents. Compact strings store Latin-1 text, i.e. the hex keys and most values, with one byte per character.
+     */
+    static long entrySize(String key, String value) {
+        return ENTRY_OVERHEAD + 2 * STRING_OVERHEAD + key.length() + value.length();
+    }
+
+    private void clearWriteAheadLog() throws IOException {
+        if (writeAheadLog != null) {
+            persistenceHandler.sync();
+            writeAheadLog.clear();
         }
-        cache = new HashMap<>();
     }
 
     public void setLocalWriteRange(Range localWriteRange) {
@@ -274,8 +721,68 @@ public abstract class KVManager {
 
     abstract void updateDelete(String key);
 
+    /**
+     * Resets the bookkeeping of the strategy after the cache was flushed
+     */
+    abstract void updateFlush();
+
+    /**
+     * @return true if updateGet may be called by multiple threads at once, i.e. it does not modify shared structures
+     */
+    boolean concurrentUpdateGet() {
+        return false;
+    }
+
+    /**
+     * Removes the key that the strategy evicts next from its bookkeeping, the caller evicts it from the cache
+     *
+     * @return the removed key, null if no key is cached
+     */
+    abstract String removeVictim();
+
+    /**
+     * Limits the number of cached keys, ignored if a memory budget is set
+     */
     public void setMaxSize(int maxSize) {
-        this.maxSize = maxSize;
+        if (maxMemory == 0) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * Limits the cache to a memory budget instead of a number of keys, the strategies start with
+     * {@link #INITIAL_BUDGETED_SIZE} keys and grow with the cache
+     *
+     * @param maxMemory budget in bytes, 0 to limit the number of keys again
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        if (maxMemory > 0) {
+            maxSize = Math.max(INITIAL_BUDGETED_SIZE, cache.size());
+        }
+    }
+
+    /**
+     * Moves the values of the cache into off-heap memory, or back onto the heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        if (offHeap == (offHeapAllocator != null)) {
+            return;
+        }
+        cacheLock.writeLock().lock();
+        try {
+            offHeapAllocator = offHeap ? new SlabAllocator() : null;
+            Map<String, String> oldCache = cache;
+            cache = newCache();
+            cache.putAll(oldCache);
+            oldCache.clear();
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+    }
+
+    private Map<String, String> newCache() {
+        return offHeapAllocator == null ? new HashMap<>() : new OffHeapCache(offHeapAllocator);
     }
 
     /**
@@ -287,6 +794,20 @@ public abstract class KVManager {
      * @param onlyWriteRange flag that determines if coordination keys (i.e. in write range) should be send to a replicator
      */
     public void transferKeys(String ip, int port, boolean onlyWriteRange) throws IOException {
+        transferKeys(ip, port, onlyWriteRange, false);
+    }
+
+    /**
+     * Transfers the keys like {@link #transferKeys(String, int, boolean)}. On a hand-over this server gives the
+     * receiver the part of the ring it coordinated until the receiver joined, so it knows which keys of that part
+     * exist. Keys the receiver kept on disk from before it went offline, but that were deleted in the meantime,
+     * are deleted on the receiver as well. Only the keys in the receiver's new write range are deleted, the
+     * replicas the receiver holds for other servers are left alone.
+     *
+     * @param handOver true if the receiver takes over a part of this server's former write range
+     */
+    public void transferKeys(String ip, int port, boolean onlyWriteRange, boolean handOver) throws IOException {
+        flushPendingWrites();
         Map<String, String> transferMap = new HashMap<>();
         // add all elements from persistent database
         if (onlyWriteRange) {
@@ -300,23 +821,152 @@ public abstract class KVManager {
         }
         ServerToServerConnection serverConnection = new ServerToServerConnection(null);
         serverConnection.buildConnection(new Pair<>(ip, port)); // connect to predecessor node and put all keys subsequently
+        // A server that rejoins with the data it kept on disk only needs the KVs that changed while it was offline
+        Map<String, String> remoteDigest = null;
+        Range receiverRange = handOver ? findWriteRange(ip, port) : null;
+        if (receiverRange != null) {
+            remoteDigest = serverConnection.keyDigest(receiverRange.getLowerBound(), receiverRange.getUpperBound());
+        } else if (localReadRange != null && localReadRange.getLowerBound() != null) {
+            remoteDigest = serverConnection.keyDigest(localReadRange.getLowerBound(), localReadRange.getUpperBound());
+        }
+        int unchanged = 0;
         for (Map.Entry<String, String> stringStringEntry : transferMap.entrySet()) {
-            serverConnection.putHashedKey(stringStringEntry.getKey(), stringStringEntry.getValue());
+            String remoteValueDigest = remoteDigest == null ? null : remoteDigest.remove(stringStringEntry.getKey());
+            if (remoteValueDigest != null && remoteValueDigest.equals(KVHash.valueDigest(stringStringEntry.getValue()))) {
+                unchanged++;
+            } else {
+                serverConnection.putHashedKey(stringStringEntry.getKey(), stringStringEntry.getValue());
+            }
 
             //delete the key after securing it in successor
             try {
                 if (!inReadRange(stringStringEntry.getKey())) {
                     // This happens in case of a graceful shutdown, so delete all keys now
-                    persistenceHandler.deleteFromDB(stringStringEntry.getKey());
+                    deleteOutOfRange(stringStringEntry.getKey());
                 }
             } catch (Exception ignored) {
             }
         }
+        // The remaining keys of the digest of the handed over range are not stored here anymore,
+        // so they were deleted while the other server was offline
+        if (receiverRange != null && remoteDigest != null) {
+            for (String staleKey : remoteDigest.keySet()) {
+                if (!isCached(staleKey)) {
+                    serverConnection.deleteHashedKey(staleKey);
+                }
+            }
+        }
+        if (unchanged > 0) {
+            StartKVServer.logger.info("Skipped " + unchanged + " KVs that " + ip + ":" + port + " already stores");
+        }
 
         serverConnection.startServer(); // After the new server received all the keys, we can start it
         serverConnection.closeCurrentConnection();
     }
 
+    /**
+     * Deletes a KV that left the read range of this server from the persistenceHandler. The deletion is logged
+     * like a delete of a client, so replaying the write-ahead log after a crash does not restore the KV.
+     */
+    private void deleteOutOfRange(String hashedKey) throws IOException {
+        ReentrantLock keyLock = keyLock(hashedKey);
+        keyLock.lock();
+        try {
+            if (writeAheadLog != null) {
+                writeAheadLog.logDelete(hashedKey);
+            }
+            persistenceHandler.deleteFromDB(hashedKey);
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * @return the write range of the server in the metadata, null if it is not part of the ring
+     */
+    private Range findWriteRange(String ip, int port) {
+        for (Range range : writeRanges) {
+            if (range.getAddress().equals(ip) && range.getPort() == port) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps the hashed key of every KV stored in the given range (in the cache or on disk) to the digest of its value
+     */
+    public Map<String, String> getKeyDigest(String lowerBound, String upperBound) throws IOException {
+        flushPendingWrites();
+        Map<String, String> digest = new HashMap<>();
+        for (Pair<String, String> kv : persistenceHandler.getRangeData(lowerBound, upperBound, true)) {
+            digest.put(kv.getLeft(), KVHash.valueDigest(kv.getRight()));
+        }
+        // cached values are newer than the ones on disk
+        cacheLock.readLock().lock();
+        try {
+            for (Map.Entry<String, String> entry : cache.entrySet()) {
+                if (KVHash.inRange(entry.getKey(), lowerBound, upperBound)) {
+                    digest.put(entry.getKey(), KVHash.valueDigest(entry.getValue()));
+                }
+            }
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+        return digest;
+    }
+
+    private boolean isCached(String hashedKey) {
+        cacheLock.readLock().lock();
+        try {
+            return cache.containsKey(hashedKey);
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the statistics of this KVServer as name-value pairs, strategies add the state of their cache
+     */
+    public Map<String, String> getStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("strategy", toString());
+        stats.put("cache_size", String.valueOf(maxSize));
+        cacheLock.readLock().lock();
+        try {
+            stats.put("cached_keys", String.valueOf(cache.size()));
+            stats.put("cache_memory", String.valueOf(maxMemory));
+            stats.put("cached_bytes", String.valueOf(cachedBytes));
+            stats.put("dirty_keys", String.valueOf(dirtyKeys.size()));
+            stats.put("evictions", String.valueOf(evictions));
+            stats.put("avg_eviction_micros", String.format(Locale.ROOT, "%.2f",
+                    evictions == 0 ? 0.0 : evictionNanos / 1000.0 / evictions));
+            addStats(stats);
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        stats.put("hits", String.valueOf(hitCount));
+        stats.put("misses", String.valueOf(missCount));
+        stats.put("hit_ratio", String.format(Locale.ROOT, "%.4f",
+                hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount)));
+        stats.put("disk_reads", String.valueOf(diskReads.sum()));
+        stats.put("disk_writes", String.valueOf(diskWrites.sum()));
+        stats.put("pending_writes", String.valueOf(writeBehind.pendingCount()));
+        stats.put("missing_keys", String.valueOf(missCache.size()));
+        if (offHeapAllocator != null) {
+            stats.put("off_heap_bytes", String.valueOf(offHeapAllocator.allocatedBytes()));
+        }
+        return stats;
+    }
+
+    /**
+     * Adds statistics about the state of the strategy, called while holding the cache lock
+     */
+    void addStats(Map<String, String> stats) {
+    }
+
     Pair<Pair<String, Integer>, Pair<String, Integer>> getSuccessors() {
         if (writeRanges.size() < 3) {
             return null;
@@ -348,6 +998,7 @@ public abstract class KVManager {
     }
 
     public void deleteAllOutOfReadRangeData() throws IOException {
+        flushPendingWrites();
         Map<String, String> transferMap = new HashMap<>();
         persistenceHandler.getRangeData(this.localWriteRange.getLowerBound(), this.localWriteRange.getUpperBound(), false)
                 .forEach(s -> transferMap.put(s.getLeft(), s.getRight()));
@@ -356,7 +1007,7 @@ public abstract class KVManager {
             try {
                 if (!inReadRange(stringStringEntry.getKey())) {
                     // This happens in case of a graceful shutdown, so delete all keys now
-                    persistenceHandler.deleteFromDB(stringStringEntry.getKey());
+                    deleteOutOfRange(stringStringEntry.getKey());
                 }
             } catch (Exception ignored) {
             }
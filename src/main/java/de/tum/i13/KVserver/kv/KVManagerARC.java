@@ -0,0 +1,145 @@
+package de.tum.i13.KVserver.kv;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * KVManagerARC implements the adaptive replacement cache (Megiddo and Modha) as strategy for the cache.
+ * The cached keys are split into t1 (keys used once recently) and t2 (keys used at least twice). Evicted keys are
+ * remembered without their value in the ghost lists b1 and b2. A miss on a key in b1 means t1 was too small, so the
+ * target size of t1 grows, a miss on a key in b2 shrinks it again. That way the split between recency and frequency
+ * adapts to the workload.
+ */
+public class KVManagerARC extends KVManager {
+    public LinkedHashSet<String> t1;
+    public LinkedHashSet<String> t2;
+    public LinkedHashSet<String> b1;
+    public LinkedHashSet<String> b2;
+    /**
+     * Target size of t1
+     */
+    private int target;
+
+    public KVManagerARC(int maxSize) {
+        super(maxSize);
+        t1 = new LinkedHashSet<>();
+        t2 = new LinkedHashSet<>();
+        b1 = new LinkedHashSet<>();
+        b2 = new LinkedHashSet<>();
+    }
+
+    void updatePut(String key) throws IOException {
+        if (t1.remove(key) || t2.remove(key)) {
+            t2.add(key);
+            return;
+        }
+        if (b1.remove(key)) {
+            target = Math.min(maxSize, target + Math.max(b2.size() / Math.max(1, b1.size()), 1));
+            replaceIfFull(false);
+            t2.add(key);
+            return;
+        }
+        if (b2.remove(key)) {
+            target = Math.max(0, target - Math.max(b1.size() / Math.max(1, b2.size()), 1));
+            replaceIfFull(true);
+            t2.add(key);
+            return;
+        }
+        if (t1.size() + b1.size() >= maxSize) {
+            if (t1.size() < maxSize) {
+                removeFirst(b1);
+                replaceIfFull(false);
+            } else {
+                evict(removeFirst(t1));
+            }
+        } else if (t1.size() + t2.size() + b1.size() + b2.size() >= maxSize) {
+            if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * maxSize) {
+                removeFirst(b2);
+            }
+            replaceIfFull(false);
+        }
+        t1.add(key);
+    }
+
+    /**
+     * Evicts the least recently used key of t1 or t2, depending on whether t1 exceeds its target size,
+     * if the cache is full
+     */
+    private void replaceIfFull(boolean missInB2) throws IOException {
+        if (t1.size() + t2.size() < maxSize) {
+            return;
+        }
+        evict(replace(missInB2));
+    }
+
+    /**
+     * Moves the least recently used key of t1 or t2 into its ghost list
+     *
+     * @return the key, null if no key is cached
+     */
+    private String replace(boolean missInB2) {
+        if (!t1.isEmpty() && (t1.size() > target || (missInB2 && t1.size() == target) || t2.isEmpty())) {
+            String removedKey = removeFirst(t1);
+            b1.add(removedKey);
+            return removedKey;
+        }
+        if (!t2.isEmpty()) {
+            String removedKey = removeFirst(t2);
+            b2.add(removedKey);
+            return removedKey;
+        }
+        return null;
+    }
+
+    @Override
+    String removeVictim() {
+        return replace(false);
+    }
+
+    private static String removeFirst(LinkedHashSet<String> list) {
+        String first = list.iterator().next();
+        list.remove(first);
+        return first;
+    }
+
+    @Override
+    void updateFlush() {
+        t1 = new LinkedHashSet<>();
+        t2 = new LinkedHashSet<>();
+        b1 = new LinkedHashSet<>();
+        b2 = new LinkedHashSet<>();
+        target = 0;
+    }
+
+    @Override
+    void updateGet(String key) {
+        if (t1.remove(key) || t2.remove(key)) {
+            t2.add(key);
+        }
+    }
+
+    @Override
+    void updateDelete(String key) {
+        if (!t1.remove(key) && !t2.remove(key) && !b1.remove(key)) {
+            b2.remove(key);
+        }
+    }
+
+    /**
+     * Adds the current split of the cache, arc_target is the size t1 (recency) is adapted towards
+     */
+    @Override
+    void addStats(Map<String, String> stats) {
+        stats.put("arc_target", String.valueOf(target));
+        stats.put("arc_t1", String.valueOf(t1.size()));
+        stats.put("arc_t2", String.valueOf(t2.size()));
+        stats.put("arc_b1", String.valueOf(b1.size()));
+        stats.put("arc_b2", String.valueOf(b2.size()));
+    }
+
+    @Override
+    public String toString() {
+        return "ARC";
+    }
+}
@@ -0,0 +1,121 @@
+package de.tum.i13.KVserver.kv;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * KVManagerCLOCK implements the CLOCK strategy for the cache, an approximation of LRU.
+ * Every cached key occupies a slot of a flat array. A hit only sets the reference bit of its slot, nothing is
+ * reordered, so reads do not modify any shared list. To evict a key the hand sweeps over the slots, clears every
+ * set reference bit it passes and evicts the first key whose bit was already cleared.
+ */
+public class KVManagerCLOCK extends KVManager {
+    private String[] slots;
+    private boolean[] referenced;
+    private Map<String, Integer> slotOf;
+    private Deque<Integer> freeSlots;
+    private int hand;
+
+    public KVManagerCLOCK(int maxSize) {
+        super(maxSize);
+        reset();
+    }
+
+    private void reset() {
+        slots = new String[0];
+        referenced = new boolean[0];
+        slotOf = new HashMap<>();
+        freeSlots = new ArrayDeque<>();
+        hand = 0;
+    }
+
+    /**
+     * Grows the slot array to the size of the cache, the cache size is only known after the construction
+     */
+    private void ensureCapacity() {
+        if (slots.length >= maxSize) {
+            return;
+        }
+        int oldLength = slots.length;
+        slots = Arrays.copyOf(slots, maxSize);
+        referenced = Arrays.copyOf(referenced, maxSize);
+        for (int slot = maxSize - 1; slot >= oldLength; slot--) {
+            freeSlots.push(slot);
+        }
+    }
+
+    void updatePut(String key) throws IOException {
+        Integer slot = slotOf.get(key);
+        if (slot != null) {
+            referenced[slot] = true;
+            return;
+        }
+        ensureCapacity();
+        if (freeSlots.isEmpty()) {
+            evict(removeVictim());
+        }
+        int freeSlot = freeSlots.pop();
+        slots[freeSlot] = key;
+        referenced[freeSlot] = false;
+        slotOf.put(key, freeSlot);
+    }
+
+    /**
+     * Moves the hand to the first key that was not referenced since the last sweep and frees its slot
+     */
+    @Override
+    String removeVictim() {
+        if (slotOf.isEmpty()) {
+            return null;
+        }
+        while (slots[hand] == null || referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % slots.length;
+        }
+        String removedKey = slots[hand];
+        updateDelete(removedKey);
+        hand = (hand + 1) % slots.length;
+        return removedKey;
+    }
+
+    @Override
+    void updateFlush() {
+        reset();
+    }
+
+    @Override
+    void updateGet(String key) {
+        Integer slot = slotOf.get(key);
+        if (slot != null) {
+            referenced[slot] = true;
+        }
+    }
+
+    /**
+     * Hits only set a reference bit, so they run under the read lock of the cache. Two hits setting the same bit
+     * at once do no harm.
+     */
+    @Override
+    boolean concurrentUpdateGet() {
+        return true;
+    }
+
+    @Override
+    void updateDelete(String key) {
+        Integer slot = slotOf.remove(key);
+        if (slot != null) {
+            slots[slot] = null;
+            referenced[slot] = false;
+            freeSlots.push(slot);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CLOCK";
+    }
+}
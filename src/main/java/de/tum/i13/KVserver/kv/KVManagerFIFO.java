@@ -26,23 +26,14 @@ public class KVManagerFIFO extends KVManager {
         }
         if (queue.size() == maxSize) {
             StartKVServer.logger.info("Wrote " + key + " in cache");
-            String removedKey = queue.remove();
-            String removedValue = cache.remove(removedKey);
-            if (persistenceHandler.getFromDB(removedKey) == null) {
-                persistenceHandler.insertInDB(removedKey, removedValue);
-                StartKVServer.logger.info("Wrote " + removedKey + ": " + removedValue + " into database");
-            } else {
-                persistenceHandler.updateInDB(removedKey, removedValue);
-                StartKVServer.logger.info("Updated " + removedKey + " in database");
-            }
+            evict(removeVictim());
         }
         queue.add(key);
     }
 
 
     @Override
-    public void flushCacheToDisk() throws IOException {
-        super.flushCacheToDisk();
+    void updateFlush() {
         queue = new LinkedBlockingQueue<>();
     }
 
@@ -50,11 +41,21 @@ public class KVManagerFIFO extends KVManager {
     void updateGet(String key) {
     }
 
+    @Override
+    boolean concurrentUpdateGet() {
+        return true;
+    }
+
     @Override
     void updateDelete(String key) {
         queue.remove(key);
     }
 
+    @Override
+    String removeVictim() {
+        return queue.poll();
+    }
+
     @Override
     public String toString() {
         return "FIFO";
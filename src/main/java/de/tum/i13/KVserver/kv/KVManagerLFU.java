@@ -1,69 +1,185 @@
 package de.tum.i13.KVserver.kv;
 
-import de.tum.i13.KVserver.nio.StartKVServer;
-
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 /**
- * KVManagerLFU implements the LFU strategy for the cache
+ * KVManagerLFU implements the LFU strategy for the cache.
+ * The keys are grouped into buckets of equal use frequency, the buckets form a list sorted by frequency.
+ * Every key points to its bucket, so counting a use moves the key to the next bucket, and the least frequently
+ * used key is found in the first bucket, both in constant time. Inside a bucket the keys are ordered by their last
+ * use, so ties are broken by evicting the least recently used key.
+ * <p>
+ * With aging enabled all frequencies are halved after every {@link #AGING_PERIOD} times the cache size uses,
+ * so keys that were only used a lot in the past are evicted eventually.
  */
 public class KVManagerLFU extends KVManager {
-    public Map<String, Integer> frequecyMap;
+    static final int AGING_PERIOD = 10;
+
+    private final boolean aging;
+    /**
+     * Sentinel of the circular bucket list, its successor is the bucket with the lowest frequency
+     */
+    private final FrequencyBucket buckets;
+    private Map<String, FrequencyBucket> frequencyMap;
+    private long usesSinceAging;
 
     public KVManagerLFU(int maxSize) {
+        this(maxSize, false);
+    }
+
+    public KVManagerLFU(int maxSize, boolean aging) {
         super(maxSize);
-        frequecyMap = new HashMap<>();
+        this.aging = aging;
+        this.buckets = new FrequencyBucket(0);
+        frequencyMap = new HashMap<>();
     }
 
     void updatePut(String key) throws IOException {
-        if (cache.containsKey(key)) {
-            int frequency = frequecyMap.get(key);
-            frequecyMap.replace(key, frequency + 1);
+        if (frequencyMap.containsKey(key)) {
+            increment(key);
             return;
         }
-        if (cache.size() == maxSize) {
-            Map.Entry<String, Integer> minFreq = null;
-            for (Map.Entry<String, Integer> i : frequecyMap.entrySet()) {
-                if (minFreq == null || i.getValue() < minFreq.getValue()) {
-                    minFreq = i;
-                }
-            }
-            String removedKey = minFreq.getKey();
-            String removedValue = cache.remove(removedKey);
-            frequecyMap.remove(removedKey);
-            if (persistenceHandler.getFromDB(removedKey) == null) {
-                persistenceHandler.insertInDB(removedKey, removedValue);
-                StartKVServer.logger.info("Wrote " + removedKey + ": " + removedValue + " into database");
-            } else {
-                persistenceHandler.updateInDB(removedKey, removedValue);
-                StartKVServer.logger.info("Updated " + removedKey + " in database");
-            }
+        if (frequencyMap.size() == maxSize) {
+            evict(removeVictim());
+        }
+        FrequencyBucket first = buckets.next;
+        if (first.frequency != 1) {
+            first = buckets.insertAfter(1);
         }
-        frequecyMap.put(key, 1);
+        first.keys.add(key);
+        frequencyMap.put(key, first);
+        countUse();
     }
 
     @Override
-    public void flushCacheToDisk() throws IOException {
-        super.flushCacheToDisk();
-        frequecyMap = new HashMap<>();
+    void updateFlush() {
+        frequencyMap = new HashMap<>();
+        buckets.next = buckets;
+        buckets.previous = buckets;
     }
 
     @Override
     void updateGet(String key) {
-        if (cache.containsKey(key)) {
-            frequecyMap.replace(key, frequecyMap.get(key) + 1);
+        if (frequencyMap.containsKey(key)) {
+            increment(key);
         }
     }
 
     @Override
     void updateDelete(String key) {
-        frequecyMap.remove(key);
+        if (frequencyMap.containsKey(key)) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Removes the least recently used key of the lowest frequency
+     */
+    @Override
+    String removeVictim() {
+        if (frequencyMap.isEmpty()) {
+            return null;
+        }
+        String removedKey = buckets.next.keys.iterator().next();
+        remove(removedKey);
+        return removedKey;
+    }
+
+    /**
+     * Moves the key into the bucket of the next higher frequency
+     */
+    private void increment(String key) {
+        FrequencyBucket bucket = frequencyMap.get(key);
+        FrequencyBucket next = bucket.next;
+        if (next.frequency != bucket.frequency + 1) {
+            next = bucket.insertAfter(bucket.frequency + 1);
+        }
+        bucket.keys.remove(key);
+        next.keys.add(key);
+        frequencyMap.put(key, next);
+        if (bucket.keys.isEmpty()) {
+            bucket.unlink();
+        }
+        countUse();
+    }
+
+    private void remove(String key) {
+        FrequencyBucket bucket = frequencyMap.remove(key);
+        bucket.keys.remove(key);
+        if (bucket.keys.isEmpty()) {
+            bucket.unlink();
+        }
+    }
+
+    private void countUse() {
+        if (aging && ++usesSinceAging >= (long) AGING_PERIOD * maxSize) {
+            usesSinceAging = 0;
+            age();
+        }
+    }
+
+    /**
+     * Halves the frequency of every key. Buckets that end up with the same frequency are merged,
+     * the keys of the formerly lower frequency are placed in front.
+     */
+    private void age() {
+        FrequencyBucket bucket = buckets.next;
+        while (bucket != buckets) {
+            FrequencyBucket next = bucket.next;
+            bucket.frequency = Math.max(1, bucket.frequency / 2);
+            FrequencyBucket previous = bucket.previous;
+            if (previous != buckets && previous.frequency == bucket.frequency) {
+                previous.keys.addAll(bucket.keys);
+                for (String key : bucket.keys) {
+                    frequencyMap.put(key, previous);
+                }
+                bucket.unlink();
+            }
+            bucket = next;
+        }
+    }
+
+    /**
+     * @return how often the key was used since it was cached (reduced by aging), 0 if it is not cached
+     */
+    public int getFrequency(String key) {
+        FrequencyBucket bucket = frequencyMap.get(key);
+        return bucket == null ? 0 : bucket.frequency;
     }
 
     @Override
     public String toString() {
-        return "LFU";
+        return aging ? "LFU_AGING" : "LFU";
+    }
+
+    /**
+     * All keys that were used equally often, ordered by their last use
+     */
+    static class FrequencyBucket {
+        final LinkedHashSet<String> keys = new LinkedHashSet<>();
+        int frequency;
+        FrequencyBucket previous = this;
+        FrequencyBucket next = this;
+
+        FrequencyBucket(int frequency) {
+            this.frequency = frequency;
+        }
+
+        FrequencyBucket insertAfter(int frequency) {
+            FrequencyBucket bucket = new FrequencyBucket(frequency);
+            bucket.previous = this;
+            bucket.next = next;
+            next.previous = bucket;
+            next = bucket;
+            return bucket;
+        }
+
+        void unlink() {
+            previous.next = next;
+            next.previous = previous;
+        }
     }
 }
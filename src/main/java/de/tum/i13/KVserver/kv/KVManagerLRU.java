@@ -1,56 +1,56 @@
 package de.tum.i13.KVserver.kv;
 
-import de.tum.i13.KVserver.nio.StartKVServer;
-
 import java.io.IOException;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.LinkedHashSet;
 
 /**
- * KVManagerLRU implements the LRU strategy for the cache
+ * KVManagerLRU implements the LRU strategy for the cache.
+ * The keys are kept in a LinkedHashSet in the order of their last use, so moving a key to the most recently used
+ * position and finding the least recently used key both take constant time.
  */
 public class KVManagerLRU extends KVManager {
-    public Queue<String> queue;
+    /**
+     * Cached keys, from the least to the most recently used
+     */
+    public LinkedHashSet<String> recency;
 
     public KVManagerLRU(int maxSize) {
         super(maxSize);
-        queue = new LinkedBlockingQueue<>();
+        recency = new LinkedHashSet<>();
     }
 
     void updatePut(String key) throws IOException {
-        if (queue.contains(key)) {
-            queue.remove(key);
-        } else if (queue.size() == maxSize) {
-            String removedKey = queue.remove();
-            String removedValue = cache.remove(removedKey);
-            if (persistenceHandler.getFromDB(removedKey) == null) {
-                persistenceHandler.insertInDB(removedKey, removedValue);
-                StartKVServer.logger.info("Wrote " + removedKey + ": " + removedValue + " into database");
-            } else {
-                persistenceHandler.updateInDB(removedKey, removedValue);
-                StartKVServer.logger.info("Updated " + removedKey + " in database");
-            }
+        if (!recency.remove(key) && recency.size() == maxSize) {
+            evict(removeVictim());
         }
-        queue.add(key);
+        recency.add(key);
     }
 
     @Override
-    public void flushCacheToDisk() throws IOException {
-        super.flushCacheToDisk();
-        queue = new LinkedBlockingQueue<>();
+    void updateFlush() {
+        recency = new LinkedHashSet<>();
     }
 
     @Override
     void updateGet(String key) {
-        if (queue.contains(key)) {
-            queue.remove(key);
-            queue.add(key);
+        if (recency.remove(key)) {
+            recency.add(key);
         }
     }
 
     @Override
     void updateDelete(String key) {
-        queue.remove(key);
+        recency.remove(key);
+    }
+
+    @Override
+    String removeVictim() {
+        if (recency.isEmpty()) {
+            return null;
+        }
+        String removedKey = recency.iterator().next();
+        recency.remove(removedKey);
+        return removedKey;
     }
 
     @Override
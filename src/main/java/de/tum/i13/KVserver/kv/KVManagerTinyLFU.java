@@ -0,0 +1,128 @@
+package de.tum.i13.KVserver.kv;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * KVManagerTinyLFU implements the W-TinyLFU strategy for the cache.
+ * New keys enter a small LRU window (1% of the cache). A key that falls out of the window is only admitted into the
+ * main region if it was used more often than the key the main region would evict for it, the use frequencies are
+ * estimated by a {@link FrequencySketch}. Keys that are read once, e.g. by a scan, therefore never displace the
+ * frequently used keys.
+ * <p>
+ * The main region is a segmented LRU: admitted keys start in the probation segment and are promoted to the protected
+ * segment (80% of the main region) on their next use.
+ */
+public class KVManagerTinyLFU extends KVManager {
+    private final FrequencySketch sketch;
+    public LinkedHashSet<String> window;
+    public LinkedHashSet<String> probation;
+    public LinkedHashSet<String> protectedSegment;
+
+    public KVManagerTinyLFU(int maxSize) {
+        super(maxSize);
+        sketch = new FrequencySketch();
+        window = new LinkedHashSet<>();
+        probation = new LinkedHashSet<>();
+        protectedSegment = new LinkedHashSet<>();
+    }
+
+    private int windowSize() {
+        return Math.max(1, maxSize / 100);
+    }
+
+    private int protectedSize() {
+        return (int) ((maxSize - windowSize()) * 0.8);
+    }
+
+    void updatePut(String key) throws IOException {
+        sketch.ensureCapacity(maxSize);
+        if (window.contains(key) || probation.contains(key) || protectedSegment.contains(key)) {
+            updateGet(key);
+            return;
+        }
+        sketch.increment(key);
+        window.add(key);
+        if (window.size() > windowSize()) {
+            String candidate = window.iterator().next();
+            window.remove(candidate);
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves a key that fell out of the window into the main region, if the main region is full
+     * either the candidate or the victim of the main region is evicted, depending on their frequency
+     */
+    private void admit(String candidate) throws IOException {
+        if (window.size() + probation.size() + protectedSegment.size() < maxSize) {
+            probation.add(candidate);
+            return;
+        }
+        LinkedHashSet<String> victimSegment = probation.isEmpty() ? protectedSegment : probation;
+        if (victimSegment.isEmpty()) {
+            evict(candidate);
+            return;
+        }
+        String victim = victimSegment.iterator().next();
+        if (sketch.estimate(candidate) > sketch.estimate(victim)) {
+            victimSegment.remove(victim);
+            evict(victim);
+            probation.add(candidate);
+        } else {
+            evict(candidate);
+        }
+    }
+
+    /**
+     * Removes the victim of the main region, the window is only emptied once the main region is
+     */
+    @Override
+    String removeVictim() {
+        for (LinkedHashSet<String> segment : List.of(probation, protectedSegment, window)) {
+            if (!segment.isEmpty()) {
+                String removedKey = segment.iterator().next();
+                segment.remove(removedKey);
+                return removedKey;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    void updateFlush() {
+        window = new LinkedHashSet<>();
+        probation = new LinkedHashSet<>();
+        protectedSegment = new LinkedHashSet<>();
+    }
+
+    @Override
+    void updateGet(String key) {
+        sketch.increment(key);
+        if (window.remove(key)) {
+            window.add(key);
+        } else if (probation.remove(key)) {
+            protectedSegment.add(key);
+            if (protectedSegment.size() > protectedSize()) {
+                String demoted = protectedSegment.iterator().next();
+                protectedSegment.remove(demoted);
+                probation.add(demoted);
+            }
+        } else if (protectedSegment.remove(key)) {
+            protectedSegment.add(key);
+        }
+    }
+
+    @Override
+    void updateDelete(String key) {
+        if (!window.remove(key) && !probation.remove(key)) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TINYLFU";
+    }
+}
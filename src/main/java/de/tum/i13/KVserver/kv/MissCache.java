@@ -0,0 +1,46 @@
+package de.tum.i13.KVserver.kv;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MissCache remembers the hashed keys that were recently requested but are not stored, so repeated gets of a
+ * missing key are answered without asking the storage engine. It holds at most capacity keys and forgets the least
+ * recently missed one first. A key is removed as soon as it is put.
+ */
+class MissCache {
+    private int capacity;
+    private final Map<String, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    MissCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        keys.clear();
+    }
+
+    synchronized void add(String key) {
+        if (capacity > 0) {
+            keys.put(key, Boolean.TRUE);
+        }
+    }
+
+    synchronized boolean contains(String key) {
+        return keys.get(key) != null;
+    }
+
+    synchronized void remove(String key) {
+        keys.remove(key);
+    }
+
+    synchronized int size() {
+        return keys.size();
+    }
+}
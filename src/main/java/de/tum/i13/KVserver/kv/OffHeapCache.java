@@ -0,0 +1,142 @@
+package de.tum.i13.KVserver.kv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * OffHeapCache is a map for the cache of the KVManager that stores the values off the heap.
+ * A value is encoded in UTF-8 and written, prefixed with its length, into a chunk of the {@link SlabAllocator}.
+ * The heap only holds the keys and the addresses of their chunks in an {@link AddressMap}, so the garbage collector
+ * does not have to trace the values however large the cache grows. Since it is a regular map, it works underneath
+ * every strategy.
+ */
+class OffHeapCache extends AbstractMap<String, String> {
+    private static final int LENGTH_SIZE = 4;
+
+    private final SlabAllocator allocator;
+    private final AddressMap addresses = new AddressMap();
+
+    OffHeapCache(SlabAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public String get(Object key) {
+        long address = addresses.get(key);
+        return address == AddressMap.ABSENT ? null : read(address);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return addresses.containsKey(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        long oldAddress = addresses.put(key, write(value));
+        return oldAddress == AddressMap.ABSENT ? null : release(oldAddress);
+    }
+
+    @Override
+    public String remove(Object key) {
+        long address = addresses.remove(key);
+        return address == AddressMap.ABSENT ? null : release(address);
+    }
+
+    @Override
+    public int size() {
+        return addresses.size();
+    }
+
+    /**
+     * Returns all chunks to the allocator
+     */
+    @Override
+    public void clear() {
+        for (int slot = 0; slot < addresses.capacity(); slot++) {
+            if (addresses.keyAt(slot) != null) {
+                allocator.free(addresses.addressAt(slot));
+            }
+        }
+        addresses.clear();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next = skipEmpty(0);
+                    private int current = -1;
+
+                    private int skipEmpty(int slot) {
+                        while (slot < addresses.capacity() && addresses.keyAt(slot) == null) {
+                            slot++;
+                        }
+                        return slot;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < addresses.capacity();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        current = next;
+                        next = skipEmpty(next + 1);
+                        return new SimpleImmutableEntry<>(addresses.keyAt(current), read(addresses.addressAt(current)));
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == -1) {
+                            throw new IllegalStateException();
+                        }
+                        allocator.free(addresses.addressAt(current));
+                        addresses.removeAt(current);
+                        current = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return addresses.size();
+            }
+        };
+    }
+
+    private long write(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long address = allocator.allocate(LENGTH_SIZE + bytes.length);
+        ByteBuffer buffer = allocator.buffer(address);
+        int offset = SlabAllocator.offset(address);
+        buffer.putInt(offset, bytes.length);
+        buffer.put(offset + LENGTH_SIZE, bytes);
+        return address;
+    }
+
+    private String read(long address) {
+        ByteBuffer buffer = allocator.buffer(address);
+        int offset = SlabAllocator.offset(address);
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + LENGTH_SIZE, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String release(long address) {
+        String value = read(address);
+        allocator.free(address);
+        return value;
+    }
+}
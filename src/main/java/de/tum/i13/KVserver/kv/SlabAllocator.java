@@ -0,0 +1,149 @@
+package de.tum.i13.KVserver.kv;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SlabAllocator hands out chunks of off-heap memory. The memory is allocated in slabs of direct ByteBuffers that are
+ * cut into chunks of one size class (64 bytes, 128 bytes, ... up to the slab size), a chunk is addressed by the
+ * index of its slab and its offset. Freed chunks are kept in a free list of their size class and reused, so the
+ * garbage collector only sees a few large buffers no matter how many chunks are used. A slab whose chunks are all
+ * free is released as long as its size class keeps a slab's worth of free chunks in other slabs, so shrinking the
+ * cache returns the memory without allocating and releasing a slab on every put and remove at the boundary.
+ */
+class SlabAllocator {
+    static final int SLAB_SIZE = 1 << 20;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final int OFFSET_BITS = 20;
+
+    /**
+     * The slabs by their index, null for released slabs whose index can be reused
+     */
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final List<Integer> slabClasses = new ArrayList<>();
+    private int[] usedChunks = new int[0];
+    /**
+     * Free chunk addresses per size class, used as stacks
+     */
+    private long[][] freeChunks = new long[0][];
+    private int[] freeCount = new int[0];
+
+    /**
+     * @return address of a free chunk of at least the given size
+     */
+    synchronized long allocate(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass >= freeCount.length) {
+            freeChunks = Arrays.copyOf(freeChunks, sizeClass + 1);
+            freeCount = Arrays.copyOf(freeCount, sizeClass + 1);
+        }
+        if (freeCount[sizeClass] == 0) {
+            addSlab(sizeClass);
+        }
+        long address = freeChunks[sizeClass][--freeCount[sizeClass]];
+        usedChunks[slab(address)]++;
+        return address;
+    }
+
+    synchronized void free(long address) {
+        int slab = slab(address);
+        int sizeClass = slabClasses.get(slab);
+        push(sizeClass, address);
+        int chunksPerSlab = slabs.get(slab).capacity() / chunkSize(sizeClass);
+        // a slab of a single large chunk is released right away, otherwise the free chunks of another slab stay,
+        // so the next allocation of the size class needs no new slab
+        if (--usedChunks[slab] == 0 && (chunksPerSlab == 1 || freeCount[sizeClass] >= 2 * chunksPerSlab)) {
+            releaseSlab(slab, sizeClass);
+        }
+    }
+
+    /**
+     * @return the slab that contains the chunk, chunks are accessed with absolute gets and puts at {@link #offset}
+     */
+    synchronized ByteBuffer buffer(long address) {
+        return slabs.get(slab(address));
+    }
+
+    static int offset(long address) {
+        return (int) (address & ((1 << OFFSET_BITS) - 1));
+    }
+
+    private static int slab(long address) {
+        return (int) (address >>> OFFSET_BITS);
+    }
+
+    static int chunkSize(int sizeClass) {
+        return MIN_CHUNK_SIZE << sizeClass;
+    }
+
+    private static int sizeClass(int size) {
+        int sizeClass = 0;
+        while (chunkSize(sizeClass) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    /**
+     * Allocates a new slab and cuts it into free chunks of the size class. Chunks larger than {@link #SLAB_SIZE}
+     * get a slab of their own.
+     */
+    private void addSlab(int sizeClass) {
+        int chunkSize = chunkSize(sizeClass);
+        int slabSize = Math.max(SLAB_SIZE, chunkSize);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(slabSize);
+        long slab = slabs.indexOf(null);
+        if (slab == -1) {
+            slab = slabs.size();
+            slabs.add(buffer);
+            slabClasses.add(sizeClass);
+            usedChunks = Arrays.copyOf(usedChunks, slabs.size());
+        } else {
+            slabs.set((int) slab, buffer);
+            slabClasses.set((int) slab, sizeClass);
+        }
+        for (int offset = slabSize - chunkSize; offset >= 0; offset -= chunkSize) {
+            push(sizeClass, slab << OFFSET_BITS | offset);
+        }
+    }
+
+    /**
+     * Drops the chunks of the slab from the free list of its size class, the buffer is then left to the garbage
+     * collector, which returns its memory
+     */
+    private void releaseSlab(int slab, int sizeClass) {
+        long[] chunks = freeChunks[sizeClass];
+        int kept = 0;
+        for (int i = 0; i < freeCount[sizeClass]; i++) {
+            if (slab(chunks[i]) != slab) {
+                chunks[kept++] = chunks[i];
+            }
+        }
+        freeCount[sizeClass] = kept;
+        slabs.set(slab, null);
+    }
+
+    private void push(int sizeClass, long address) {
+        if (freeChunks[sizeClass] == null) {
+            freeChunks[sizeClass] = new long[16];
+        } else if (freeCount[sizeClass] == freeChunks[sizeClass].length) {
+            freeChunks[sizeClass] = Arrays.copyOf(freeChunks[sizeClass], freeCount[sizeClass] * 2);
+        }
+        freeChunks[sizeClass][freeCount[sizeClass]++] = address;
+    }
+
+    /**
+     * @return bytes of off-heap memory allocated in slabs
+     */
+    synchronized long allocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer slab : slabs) {
+            if (slab != null) {
+                bytes += slab.capacity();
+            }
+        }
+        return bytes;
+    }
+}
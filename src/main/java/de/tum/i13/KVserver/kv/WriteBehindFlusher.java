@@ -0,0 +1,169 @@
+package de.tum.i13.KVserver.kv;
+
+import de.tum.i13.KVserver.nio.StartKVServer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * WriteBehindFlusher writes the dirty KVs that were evicted from the cache to the storage engine in the background,
+ * so an eviction does not wait for the disk. Until a KV is written it stays pending and is served from here.
+ * <p>
+ * A pending KV is written without holding the lock, so schedule and lookups never wait for the disk. It is only
+ * removed after it was written and if it was not replaced in the meantime, so a KV is always either pending or
+ * stored. A key is written by one thread at a time, a discard waits for its write to complete, so a write that was
+ * in progress can not bring back a deleted key. If more than maxPending KVs are pending, the evicting request
+ * writes them itself once it released the cache, see {@link #relieve()}.
+ */
+class WriteBehindFlusher implements Runnable {
+    static final int DEFAULT_MAX_PENDING = 10000;
+
+    private final KVManager kvManager;
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    /**
+     * Keys that are being written right now
+     */
+    private final Set<String> writing = new HashSet<>();
+    private final Object lock = new Object();
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private Thread thread;
+
+    WriteBehindFlusher(KVManager kvManager) {
+        this.kvManager = kvManager;
+    }
+
+    /**
+     * Starts the background thread, without it pending KVs are only written once maxPending is reached or
+     * {@link #flush()} is called
+     */
+    synchronized void start(int maxPending) {
+        this.maxPending = maxPending;
+        if (thread == null) {
+            thread = new Thread(this, "write-behind");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues the KV for writing, a newer value of a pending key replaces the older one
+     */
+    void schedule(String key, String value) {
+        synchronized (lock) {
+            pending.put(key, value);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Writes the pending KVs on the calling thread if more than maxPending are waiting, the background thread does
+     * not keep up then (back-pressure). Must not be called while holding the lock of the cache.
+     */
+    void relieve() throws IOException {
+        if (pendingCount() > maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * @return the value of the key if it is waiting to be written, null otherwise
+     */
+    String getPending(String key) {
+        synchronized (lock) {
+            return pending.get(key);
+        }
+    }
+
+    /**
+     * Drops the pending write of a deleted key, a write that is in progress is completed first
+     *
+     * @return true if a write was pending
+     */
+    boolean discard(String key) throws IOException {
+        synchronized (lock) {
+            awaitWrite(key);
+            return pending.remove(key) != null;
+        }
+    }
+
+    int pendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Writes all KVs that are pending when it is called
+     */
+    void flush() throws IOException {
+        List<String> keys;
+        synchronized (lock) {
+            keys = new ArrayList<>(pending.keySet());
+        }
+        for (String key : keys) {
+            String value;
+            synchronized (lock) {
+                awaitWrite(key);
+                value = pending.get(key);
+                if (value == null) {
+                    continue;
+                }
+                writing.add(key);
+            }
+            try {
+                kvManager.writeToDisk(key, value);
+                synchronized (lock) {
+                    pending.remove(key, value); // a newer value scheduled in the meantime stays pending
+                }
+            } finally {
+                synchronized (lock) {
+                    writing.remove(key);
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until no other thread writes the key, the caller holds the lock
+     */
+    private void awaitWrite(String key) throws InterruptedIOException {
+        while (writing.contains(key)) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the write of " + key);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                synchronized (lock) {
+                    while (pending.isEmpty()) {
+                        lock.wait();
+                    }
+                }
+                flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                StartKVServer.logger.severe("Could not write the evicted KVs to disk, retrying");
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interruptedException) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.tum.i13.KVserver.kv.persistence;
+
+import de.tum.i13.KVserver.nio.StartKVServer;
+import de.tum.i13.shared.Pair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The LogCompactor merges all sealed segments of a {@link LogPersistenceHandler} into a single segment that only
+ * contains the live records. Superseded values and tombstones are dropped. The live records are written in the order
+ * of their key hash, so the merged segment is a sorted table in which every range of the ring is stored contiguously.
+ * <p>
+ * The compaction runs in its own thread. The segments are copied without holding the lock of the
+ * LogPersistenceHandler, it is only taken for the liveness check of a record and for the final swap of the segments,
+ * so gets and puts are not blocked while the data is copied.
+ * Copying is throttled to a maximum number of bytes per second, so the compaction does not take all disk bandwidth
+ * away from the server.
+ */
+public class LogCompactor {
+    static final String UNFINISHED_SUFFIX = ".compact";
+    static final String MERGED_SUFFIX = ".merged";
+
+    /**
+     * Ratio of dead bytes in the sealed segments from which on a compaction is started
+     */
+    private final double deadRatio;
+    /**
+     * Number of sealed segments from which on a compaction is started
+     */
+    private final int maxSealedSegments;
+    private final long bytesPerSecond;
+    private final long checkIntervalMillis;
+    private ScheduledExecutorService executor;
+    private LogPersistenceHandler log;
+
+    private long throttleWindowStart;
+    private long throttleWindowBytes;
+
+    /**
+     * @param deadRatio         ratio of dead bytes in the sealed segments that triggers a compaction
+     * @param maxSealedSegments number of sealed segments that triggers a compaction
+     * @param bytesPerSecond    maximum number of bytes copied per second, 0 disables the throttling
+     */
+    public LogCompactor(double deadRatio, int maxSealedSegments, long bytesPerSecond) {
+        this(deadRatio, maxSealedSegments, bytesPerSecond, 5000);
+    }
+
+    public LogCompactor(double deadRatio, int maxSealedSegments, long bytesPerSecond, long checkIntervalMillis) {
+        this.deadRatio = deadRatio;
+        this.maxSealedSegments = maxSealedSegments;
+        this.bytesPerSecond = bytesPerSecond;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    void start(LogPersistenceHandler log) {
+        this.log = log;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::compactIfNeeded, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks the thresholds and compacts the sealed segments if one of them is exceeded
+     */
+    void compactIfNeeded() {
+        List<LogSegment> sealed = log.getSealedSegments();
+        long size = 0;
+        long dead = 0;
+        for (LogSegment segment : sealed) {
+            size += segment.size();
+            dead += segment.deadBytes;
+        }
+        boolean tooManySegments = sealed.size() >= maxSealedSegments;
+        boolean tooManyDeadBytes = sealed.size() > 0 && size > 0 && (double) dead / size >= deadRatio;
+        if (tooManySegments || tooManyDeadBytes) {
+            try {
+                compact(log, sealed);
+            } catch (IOException e) {
+                StartKVServer.logger.severe("Compaction of the log failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Copies all live records of the given segments sorted by key into a new segment and swaps it in afterwards.
+     * The new segment is written under a temporary name first, so a crash never leaves a partial segment behind.
+     */
+    synchronized void compact(LogPersistenceHandler log, List<LogSegment> sealed) throws IOException {
+        if (sealed.isEmpty()) {
+            return;
+        }
+        int mergedId = sealed.get(sealed.size() - 1).id;
+        Path directory = log.getDirectory();
+        Path unfinished = directory.resolve(LogSegment.fileName(mergedId, UNFINISHED_SUFFIX));
+        Path merged = directory.resolve(LogSegment.fileName(mergedId, MERGED_SUFFIX));
+        Files.deleteIfExists(unfinished);
+
+        Map<Integer, LogSegment> inputs = new HashMap<>();
+        for (LogSegment segment : sealed) {
+            inputs.put(segment.id, segment);
+        }
+        Map<String, Pair<LogPersistenceHandler.RecordPointer, LogPersistenceHandler.RecordPointer>> relocated = new HashMap<>();
+        LogSegment output = new LogSegment(unfinished, mergedId);
+        try {
+            // tombstones and superseded records are not live, all older records of their keys are part of this compaction
+            for (Pair<String, LogPersistenceHandler.RecordPointer> live : log.getLiveRecords(inputs.keySet())) {
+                LogPersistenceHandler.RecordPointer pointer = live.getRight();
+                ByteBuffer record = inputs.get(pointer.segment).readSealed(pointer.offset, pointer.size);
+                long newOffset = output.append(record);
+                relocated.put(live.getLeft(), new Pair<>(pointer,
+                        new LogPersistenceHandler.RecordPointer(mergedId, newOffset, pointer.size)));
+                throttle(pointer.size);
+            }
+            output.force();
+        } finally {
+            output.close();
+        }
+        Files.move(unfinished, merged, StandardCopyOption.ATOMIC_MOVE);
+
+        if (log.replaceSegments(sealed, merged, relocated)) {
+            StartKVServer.logger.info("Compacted " + sealed.size() + " segments of the log into segment " + mergedId);
+        } else {
+            Files.deleteIfExists(merged);
+        }
+    }
+
+    /**
+     * Sleeps as long as the bytes copied in the current second exceed the configured limit
+     */
+    private void throttle(int bytes) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - throttleWindowStart >= 1000) {
+            throttleWindowStart = now;
+            throttleWindowBytes = 0;
+        }
+        throttleWindowBytes += bytes;
+        if (throttleWindowBytes >= bytesPerSecond) {
+            try {
+                Thread.sleep(Math.max(0, 1000 - (now - throttleWindowStart)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throttleWindowStart = System.currentTimeMillis();
+            throttleWindowBytes = 0;
+        }
+    }
+}
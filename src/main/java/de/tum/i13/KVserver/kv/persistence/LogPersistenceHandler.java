@@ -0,0 +1,606 @@
+package de.tum.i13.KVserver.kv.persistence;
+
+import de.tum.i13.KVserver.nio.StartKVServer;
+import de.tum.i13.shared.Constants;
+import de.tum.i13.shared.KVHash;
+import de.tum.i13.shared.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * LogPersistenceHandler stores the KV pairs in an append-only log that is split into segments.
+ * Inserts, updates and deletes never rewrite existing data, they append a new record to the active segment
+ * (a delete appends a tombstone). An in-memory index maps every key to the position of its latest record,
+ * so every operation costs a single append or positional read, independent of the size of the database.
+ * <p>
+ * Record layout: CRC32C (4 bytes) | type (1 byte) | key length (2 bytes) | value length (4 bytes) | key | value
+ * <br>
+ * The checksum covers everything behind it, so a record that was only partially written before a crash is detected
+ * and cut off when the log is opened. Keys that are MD5 hashes (all keys stored by the KVServer) are stored as their
+ * raw 16 bytes instead of 32 hex characters, which is marked by the {@link #HASHED_KEY} bit of the type.
+ * <p>
+ * The index is sorted by the key hash, so the KVs of a range of the ring are found without looking at the other keys.
+ * On {@link #close()} the index is written to a snapshot file, which lets the next start skip replaying the log.
+ * <p>
+ * Superseded records and tombstones are removed by the {@link LogCompactor}, which merges all sealed segments
+ * into a single segment sorted by the key hash in the background.
+ */
+public class LogPersistenceHandler implements StorageEngine {
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final byte PUT = 1;
+    static final byte TOMBSTONE = 2;
+    static final byte HASHED_KEY = (byte) 0x80;
+    static final int HEADER_SIZE = 11;
+    private static final int TYPE_OFFSET = 4;
+    private static final int KEY_LENGTH_OFFSET = 5;
+    private static final int VALUE_LENGTH_OFFSET = 7;
+    private static final int HASHED_KEY_LENGTH = 16;
+    static final Charset CHARSET = Charset.forName(Constants.TELNET_ENCODING);
+    private static final String INDEX_SNAPSHOT = "index.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x4B56494E;
+    /**
+     * Holds the version of the record layout the segments of the directory are written in
+     */
+    private static final String FORMAT_FILE = "log.format";
+    private static final int FORMAT_VERSION = 2;
+    private static final String OLD_LAYOUT_SUFFIX = ".old";
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    /**
+     * All segments of the log ordered by their id, the segment with the highest id is the active segment
+     */
+    private final TreeMap<Integer, LogSegment> segments;
+    /**
+     * Maps every stored key to the position of its latest record, sorted by the key
+     */
+    private final TreeMap<String, RecordPointer> index;
+    private LogSegment activeSegment;
+    private LogCompactor compactor;
+
+    public LogPersistenceHandler(Path directory, boolean deleteCache) {
+        this(directory, deleteCache, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public LogPersistenceHandler(Path directory, boolean deleteCache, long maxSegmentSize) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.segments = new TreeMap<>();
+        this.index = new TreeMap<>();
+        initLog(deleteCache);
+    }
+
+    /**
+     * Opens all segments inside the directory and rebuilds the index. If a snapshot of the index exists, it is loaded
+     * and only the records written after the snapshot are replayed, otherwise all segments are replayed in order.
+     * If deleteCache is set, the existing segments are removed instead.
+     */
+    private void initLog(boolean deleteCache) {
+        try {
+            Files.createDirectories(directory);
+            finishCompaction();
+            if (!deleteCache) {
+                setAsideOldLayout();
+            }
+            Path snapshot = directory.resolve(INDEX_SNAPSHOT);
+            for (Path file : listSegmentFiles()) {
+                if (deleteCache) {
+                    Files.delete(file);
+                } else {
+                    LogSegment segment = new LogSegment(file, LogSegment.parseId(file));
+                    segments.put(segment.id, segment);
+                }
+            }
+            Map<Integer, Long> snapshotSizes = deleteCache ? Map.of() : loadSnapshot(snapshot);
+            // the snapshot is outdated as soon as the log changes
+            Files.deleteIfExists(snapshot);
+            for (LogSegment segment : segments.values()) {
+                loadSegment(segment, snapshotSizes.getOrDefault(segment.id, 0L), segment == segments.lastEntry().getValue());
+            }
+            activeSegment = segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+            Files.writeString(directory.resolve(FORMAT_FILE), Integer.toString(FORMAT_VERSION));
+        } catch (IOException e) {
+            StartKVServer.logger.severe("Could not open the log in " + directory);
+        }
+    }
+
+    /**
+     * Segments written before the records had checksums can not be read with the current layout. They are renamed,
+     * so they are neither replayed nor overwritten, and the log starts empty.
+     */
+    private void setAsideOldLayout() throws IOException {
+        Path format = directory.resolve(FORMAT_FILE);
+        if (Files.exists(format) && Files.readString(format).trim().equals(Integer.toString(FORMAT_VERSION))) {
+            return;
+        }
+        for (Path file : listSegmentFiles()) {
+            StartKVServer.logger.severe("Setting aside " + file + ", it was written in an older log layout");
+            Files.move(file, file.resolveSibling(file.getFileName() + OLD_LAYOUT_SUFFIX));
+        }
+        Files.deleteIfExists(directory.resolve(INDEX_SNAPSHOT));
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        return listSegmentFiles(LogSegment.SUFFIX);
+    }
+
+    private List<Path> listSegmentFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> LogSegment.parseId(file, suffix) != -1)
+                    .sorted(Comparator.comparingInt(file -> LogSegment.parseId(file, suffix)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Completes a compaction that was interrupted by a crash. A merged segment is only renamed to its final name
+     * after it was written completely, so it replaces all segments up to its id. Unfinished outputs are dropped.
+     */
+    private void finishCompaction() throws IOException {
+        for (Path unfinished : listSegmentFiles(LogCompactor.UNFINISHED_SUFFIX)) {
+            Files.delete(unfinished);
+        }
+        for (Path merged : listSegmentFiles(LogCompactor.MERGED_SUFFIX)) {
+            int mergedId = LogSegment.parseId(merged, LogCompactor.MERGED_SUFFIX);
+            for (Path file : listSegmentFiles()) {
+                if (LogSegment.parseId(file) <= mergedId) {
+                    Files.delete(file);
+                }
+            }
+            Files.move(merged, directory.resolve(LogSegment.fileName(mergedId)), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private LogSegment openSegment(int id) throws IOException {
+        LogSegment segment = new LogSegment(directory.resolve(LogSegment.fileName(id)), id);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Reads all records of a segment behind the given offset into the index. An incomplete record at the end of the
+     * active segment (e.g. after a crash during a write) is cut off. A sealed segment was complete when it was
+     * sealed, so a record that does not match its checksum there is damaged: it is skipped and reported, the records
+     * behind it are still read. If its header is damaged as well, the rest of the segment can not be read.
+     */
+    private void loadSegment(LogSegment segment, long from, boolean active) throws IOException {
+        long offset = from;
+        while (true) {
+            offset = segment.forEachRecord(offset, (type, key, recordOffset, record) ->
+                    updateIndex(type, key, new RecordPointer(segment.id, recordOffset, record.capacity())));
+            if (offset >= segment.size()) {
+                return;
+            }
+            if (active) {
+                StartKVServer.logger.warning("Dropping incomplete record at the end of " + segment.path);
+                segment.truncate(offset);
+                return;
+            }
+            int length = segment.recordLength(offset);
+            if (length == -1) {
+                StartKVServer.logger.severe("Damaged record at offset " + offset + " of sealed segment "
+                        + segment.path + ", the rest of the segment is not readable");
+                return;
+            }
+            StartKVServer.logger.severe("Skipping damaged record at offset " + offset + " of sealed segment " + segment.path);
+            segment.deadBytes += length;
+            offset += length;
+        }
+    }
+
+    /**
+     * Loads the index from the snapshot file. The snapshot is only used if every segment it refers to still exists
+     * and is at least as large as at the time of the snapshot.
+     *
+     * @return the size of every segment at the time of the snapshot, empty if no valid snapshot was loaded
+     */
+    private Map<Integer, Long> loadSnapshot(Path snapshot) {
+        if (!Files.exists(snapshot)) {
+            return Map.of();
+        }
+        Map<Integer, Long> sizes = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return Map.of();
+            }
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                int id = in.readInt();
+                long size = in.readLong();
+                long deadBytes = in.readLong();
+                LogSegment segment = segments.get(id);
+                if (segment == null || segment.size() < size) {
+                    return Map.of();
+                }
+                segment.deadBytes = deadBytes;
+                sizes.put(id, size);
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                RecordPointer pointer = new RecordPointer(in.readInt(), in.readLong(), in.readInt());
+                if (!sizes.containsKey(pointer.segment)) {
+                    throw new IOException("Snapshot refers to unknown segment " + pointer.segment);
+                }
+                index.put(key, pointer);
+            }
+            return sizes;
+        } catch (IOException e) {
+            StartKVServer.logger.warning("Ignoring unreadable index snapshot, replaying the whole log");
+            index.clear();
+            segments.values().forEach(segment -> segment.deadBytes = 0);
+            return Map.of();
+        }
+    }
+
+    /**
+     * Writes the index sorted by key, together with the size of every segment, into the snapshot file
+     */
+    private void writeSnapshot() throws IOException {
+        Path snapshot = directory.resolve(INDEX_SNAPSHOT);
+        Path unfinished = directory.resolve(INDEX_SNAPSHOT + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(unfinished)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(segments.size());
+            for (LogSegment segment : segments.values()) {
+                out.writeInt(segment.id);
+                out.writeLong(segment.size());
+                out.writeLong(segment.deadBytes);
+            }
+            out.writeInt(index.size());
+            for (Map.Entry<String, RecordPointer> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().segment);
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().size);
+            }
+        }
+        Files.move(unfinished, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Points the index to the new record. The record it replaces, as well as a tombstone itself, count as dead bytes
+     * that can be reclaimed by the compaction.
+     */
+    private void updateIndex(byte type, String key, RecordPointer pointer) {
+        RecordPointer previous = type == PUT ? index.put(key, pointer) : index.remove(key);
+        if (previous != null) {
+            segments.get(previous.segment).deadBytes += previous.size;
+        }
+        if (type == TOMBSTONE) {
+            segments.get(pointer.segment).deadBytes += pointer.size;
+        }
+    }
+
+    /**
+     * Appends a record to the active segment and points the index to it.
+     * If the active segment exceeds the maximum segment size, a new segment is started first.
+     */
+    private void append(byte type, String key, String value) throws IOException {
+        ByteBuffer record = encodeRecord(type, key, value);
+        if (activeSegment.size() >= maxSegmentSize) {
+            // the sealed segment is never written again, so it only has to be forced once
+            activeSegment.force();
+            activeSegment = openSegment(activeSegment.id + 1);
+        }
+        long offset = activeSegment.append(record);
+        updateIndex(type, key, new RecordPointer(activeSegment.id, offset, record.limit()));
+    }
+
+    /**
+     * Encodes a record in the layout of the log, the value of a tombstone is null
+     */
+    static ByteBuffer encodeRecord(byte type, String key, String value) {
+        boolean hashedKey = KVHash.isHash(key);
+        byte[] keyBytes = hashedKey ? KVHash.hexToBytes(key) : key.getBytes(CHARSET);
+        byte[] valueBytes = value == null ? new byte[0] : value.getBytes(CHARSET);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Key is too long for the log");
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueBytes.length);
+        record.position(TYPE_OFFSET);
+        record.put(hashedKey ? (byte) (type | HASHED_KEY) : type)
+                .putShort((short) keyBytes.length)
+                .putInt(valueBytes.length)
+                .put(keyBytes)
+                .put(valueBytes);
+        CRC32C checksum = new CRC32C();
+        checksum.update(record.flip().position(TYPE_OFFSET));
+        record.putInt(0, (int) checksum.getValue());
+        return record.rewind();
+    }
+
+    /**
+     * Checks the header at the position of the buffer
+     *
+     * @return the length of the record, or -1 if the header is invalid or the record is longer than the bytes left
+     */
+    static int recordLength(ByteBuffer header, long bytesLeft) {
+        byte type = header.get(TYPE_OFFSET);
+        int keyLength = Short.toUnsignedInt(header.getShort(KEY_LENGTH_OFFSET));
+        int valueLength = header.getInt(VALUE_LENGTH_OFFSET);
+        byte plainType = (byte) (type & ~HASHED_KEY);
+        if ((plainType != PUT && plainType != TOMBSTONE) || valueLength < 0
+                || ((type & HASHED_KEY) != 0 && keyLength != HASHED_KEY_LENGTH)) {
+            return -1;
+        }
+        long length = (long) HEADER_SIZE + keyLength + valueLength;
+        return length > bytesLeft ? -1 : (int) length;
+    }
+
+    static boolean isChecksumValid(ByteBuffer record, CRC32C checksum) {
+        checksum.reset();
+        checksum.update(record.slice(TYPE_OFFSET, record.limit() - TYPE_OFFSET));
+        return (int) checksum.getValue() == record.getInt(0);
+    }
+
+    /**
+     * @return PUT or TOMBSTONE
+     */
+    static byte recordType(ByteBuffer record) {
+        return (byte) (record.get(TYPE_OFFSET) & ~HASHED_KEY);
+    }
+
+    static String decodeKey(ByteBuffer record) {
+        int keyLength = Short.toUnsignedInt(record.getShort(KEY_LENGTH_OFFSET));
+        ByteBuffer key = record.slice(HEADER_SIZE, keyLength);
+        if ((record.get(TYPE_OFFSET) & HASHED_KEY) != 0) {
+            byte[] hash = new byte[HASHED_KEY_LENGTH];
+            key.get(hash);
+            return KVHash.bytesToHex(hash);
+        }
+        return CHARSET.decode(key).toString();
+    }
+
+    /**
+     * @return the value stored in the record
+     */
+    static String decodeValue(ByteBuffer record) {
+        int keyLength = Short.toUnsignedInt(record.getShort(KEY_LENGTH_OFFSET));
+        int valueLength = record.getInt(VALUE_LENGTH_OFFSET);
+        return CHARSET.decode(record.slice(HEADER_SIZE + keyLength, valueLength)).toString();
+    }
+
+    /**
+     * Returns the record the pointer refers to. Records of sealed segments are served from the memory-mapped segment
+     * without copying them, only records of the active segment, which is still growing, are read into a new buffer.
+     */
+    private ByteBuffer readRecord(RecordPointer pointer) throws IOException {
+        LogSegment segment = segments.get(pointer.segment);
+        if (segment != activeSegment) {
+            return segment.readSealed(pointer.offset, pointer.size);
+        }
+        ByteBuffer record = ByteBuffer.allocate(pointer.size);
+        segment.read(record, pointer.offset);
+        return record;
+    }
+
+    private String readValue(RecordPointer pointer) throws IOException {
+        return decodeValue(readRecord(pointer));
+    }
+
+    @Override
+    public synchronized void insertInDB(String key, String value) throws IOException {
+        append(PUT, key, value);
+    }
+
+    @Override
+    public synchronized void updateInDB(String key, String value) throws IOException {
+        append(PUT, key, value);
+    }
+
+    @Override
+    public synchronized String getFromDB(String key) throws IOException {
+        RecordPointer pointer = index.get(key);
+        if (pointer == null) {
+            return null;
+        }
+        return readValue(pointer);
+    }
+
+    @Override
+    public synchronized boolean containsInDB(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized String deleteFromDB(String key) throws IOException {
+        if (!index.containsKey(key)) {
+            return null;
+        }
+        append(TOMBSTONE, key, null);
+        return key;
+    }
+
+    /**
+     * Collects the KVs of the range from the sorted index, which takes one or two contiguous views of the index
+     * depending on whether the range wraps around. The values are read in the order of their position in the log,
+     * so records that were sorted by the compaction are read sequentially.
+     */
+    @Override
+    public synchronized List<Pair<String, String>> getRangeData(String lowerBound, String upperBound, boolean inRange) throws IOException {
+        List<Map.Entry<String, RecordPointer>> entries = new ArrayList<>();
+        for (NavigableMap<String, RecordPointer> part : rangeOf(index, lowerBound, upperBound, inRange)) {
+            entries.addAll(part.entrySet());
+        }
+        entries.sort(Comparator.comparingInt((Map.Entry<String, RecordPointer> entry) -> entry.getValue().segment)
+                .thenComparingLong(entry -> entry.getValue().offset));
+
+        List<Pair<String, String>> kvs = new ArrayList<>();
+        for (Map.Entry<String, RecordPointer> entry : entries) {
+            kvs.add(new Pair<>(entry.getKey(), readValue(entry.getValue())));
+        }
+        return kvs;
+    }
+
+    /**
+     * Splits the sorted map into the parts that are inside (or outside) of the circular range between lowerBound
+     * (exclusive) and upperBound (inclusive). The result matches {@link KVHash#inRange(String, String, String)}.
+     */
+    static <V> List<NavigableMap<String, V>> rangeOf(NavigableMap<String, V> map, String lowerBound, String upperBound, boolean inRange) {
+        if (lowerBound == null || upperBound == null) {
+            return inRange ? List.of() : List.of(map);
+        }
+        if (lowerBound.compareTo(upperBound) < 0) {
+            return inRange
+                    ? List.of(map.subMap(lowerBound, false, upperBound, true))
+                    : List.of(map.headMap(lowerBound, true), map.tailMap(upperBound, false));
+        }
+        // wraparound: the range covers everything behind lowerBound and everything up to upperBound,
+        // if both bounds are equal it covers everything except the bound itself
+        boolean sameBounds = lowerBound.equals(upperBound);
+        return inRange
+                ? List.of(map.tailMap(lowerBound, false), map.headMap(upperBound, !sameBounds))
+                : List.of(map.subMap(upperBound, sameBounds, lowerBound, true));
+    }
+
+    @Override
+    public synchronized void deleteAllData() {
+        try {
+            for (LogSegment segment : segments.values()) {
+                segment.delete();
+            }
+            segments.clear();
+            index.clear();
+            activeSegment = openSegment(1);
+        } catch (IOException e) {
+            StartKVServer.logger.warning("Couldn't delete database contents on shutdown.");
+        }
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        activeSegment.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (compactor != null) {
+            compactor.stop();
+        }
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            StartKVServer.logger.warning("Could not write the index snapshot, the next start replays the whole log");
+        }
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Starts compacting the log in a background thread whenever the thresholds of the compactor are exceeded
+     */
+    public synchronized void startCompaction(LogCompactor compactor) {
+        this.compactor = compactor;
+        compactor.start(this);
+    }
+
+    /**
+     * Merges all sealed segments right away, independent of the thresholds of the compactor
+     */
+    public void compact() throws IOException {
+        LogCompactor compactor;
+        synchronized (this) {
+            if (this.compactor == null) {
+                this.compactor = new LogCompactor(1, Integer.MAX_VALUE, 0);
+            }
+            compactor = this.compactor;
+        }
+        compactor.compact(this, getSealedSegments());
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return all segments except the active one. Those are never written to again.
+     */
+    synchronized List<LogSegment> getSealedSegments() {
+        return new ArrayList<>(segments.headMap(activeSegment.id).values());
+    }
+
+    /**
+     * @return the position of every live record inside the given segments, sorted by key
+     */
+    synchronized List<Pair<String, RecordPointer>> getLiveRecords(Set<Integer> segmentIds) {
+        List<Pair<String, RecordPointer>> live = new ArrayList<>();
+        for (Map.Entry<String, RecordPointer> entry : index.entrySet()) {
+            if (segmentIds.contains(entry.getValue().segment)) {
+                live.add(new Pair<>(entry.getKey(), entry.getValue()));
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Replaces the compacted segments by the merged segment. Keys that were updated or deleted while the
+     * compaction was running keep pointing to their newer record.
+     *
+     * @param compacted the segments that were merged, the merged segment takes over the highest id
+     * @param merged    the completely written merged segment
+     * @param relocated maps every copied key to its old and new position
+     * @return false if the log was modified in a way that makes the merged segment invalid (e.g. all data was deleted)
+     */
+    synchronized boolean replaceSegments(List<LogSegment> compacted, Path merged,
+                                         Map<String, Pair<RecordPointer, RecordPointer>> relocated) throws IOException {
+        for (LogSegment segment : compacted) {
+            if (segments.get(segment.id) != segment) {
+                return false;
+            }
+        }
+        int mergedId = compacted.get(compacted.size() - 1).id;
+        for (LogSegment segment : compacted) {
+            segments.remove(segment.id).delete();
+        }
+        Path target = directory.resolve(LogSegment.fileName(mergedId));
+        Files.move(merged, target, StandardCopyOption.ATOMIC_MOVE);
+        LogSegment segment = new LogSegment(target, mergedId);
+        segments.put(mergedId, segment);
+
+        long liveBytes = 0;
+        for (Map.Entry<String, Pair<RecordPointer, RecordPointer>> entry : relocated.entrySet()) {
+            RecordPointer current = index.get(entry.getKey());
+            RecordPointer old = entry.getValue().getLeft();
+            if (current != null && current.segment == old.segment && current.offset == old.offset) {
+                RecordPointer moved = entry.getValue().getRight();
+                index.put(entry.getKey(), new RecordPointer(mergedId, moved.offset, moved.size));
+                liveBytes += moved.size;
+            }
+        }
+        segment.deadBytes = segment.size() - liveBytes;
+        return true;
+    }
+
+    /**
+     * @return the number of keys currently stored in the log
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Position of a record inside the log
+     */
+    static class RecordPointer {
+        final int segment;
+        final long offset;
+        final int size;
+
+        RecordPointer(int segment, long offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package de.tum.i13.KVserver.kv.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A LogSegment is a single file of the append-only log of the {@link LogPersistenceHandler}.
+ * Records are only ever appended at the end of a segment, the existing content is never modified.
+ */
+class LogSegment {
+    static final String SUFFIX = ".log";
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    final int id;
+    final Path path;
+    private final FileChannel channel;
+    private long size;
+    /**
+     * The segment is read by the request threads and the compactor, it is mapped only once by whichever comes first
+     */
+    private volatile MappedByteBuffer mapped;
+    /**
+     * Number of bytes in this segment that belong to superseded records or tombstones
+     */
+    long deadBytes;
+
+    LogSegment(Path path, int id) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = channel.size();
+    }
+
+    static String fileName(int id) {
+        return fileName(id, SUFFIX);
+    }
+
+    static String fileName(int id, String suffix) {
+        return String.format("segment-%08d%s", id, suffix);
+    }
+
+    /**
+     * @return the id of the segment file, or -1 if the file is not a segment of the log
+     */
+    static int parseId(Path file) {
+        return parseId(file, SUFFIX);
+    }
+
+    static int parseId(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("segment-") || !name.endsWith(suffix)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends the record at the end of the segment
+     *
+     * @return the offset of the record inside the segment
+     */
+    long append(ByteBuffer record) throws IOException {
+        long offset = size;
+        while (record.hasRemaining()) {
+            size += channel.write(record, size);
+        }
+        return offset;
+    }
+
+    /**
+     * Fills the buffer with the content of the segment starting at the given offset
+     */
+    void read(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read == -1) {
+                throw new IOException("Unexpected end of segment " + path);
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Returns the given part of the segment. The segment is memory-mapped on the first call and the part is returned
+     * as a view of the mapping without copying it, so this must only be used once nothing is appended to the
+     * segment anymore. Segments that are too large to be mapped are read into a new buffer.
+     */
+    ByteBuffer readSealed(long offset, int length) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            read(buffer, offset);
+            return buffer;
+        }
+        MappedByteBuffer mapping = mapped;
+        if (mapping == null) {
+            mapping = map();
+        }
+        return mapping.slice((int) offset, length);
+    }
+
+    private synchronized MappedByteBuffer map() throws IOException {
+        if (mapped == null) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped;
+    }
+
+    /**
+     * Reads the segment from the start and hands every complete record to the consumer
+     *
+     * @return the offset behind the last complete record
+     */
+    long forEachRecord(RecordConsumer consumer) throws IOException {
+        return forEachRecord(0, consumer);
+    }
+
+    /**
+     * Reads the segment starting at the given offset and hands every complete record to the consumer.
+     * The segment is read in large chunks into one buffer that is reused for all records, the record handed to the
+     * consumer is a view of this buffer and only valid until the consumer returns.
+     * Reading stops at the first record that is incomplete or whose checksum does not match.
+     *
+     * @return the offset behind the last valid record
+     */
+    long forEachRecord(long from, RecordConsumer consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        buffer.flip();
+        CRC32C checksum = new CRC32C();
+        long offset = from;
+        while (offset < size) {
+            if (!fill(buffer, offset, LogPersistenceHandler.HEADER_SIZE)) {
+                break;
+            }
+            int length = LogPersistenceHandler.recordLength(buffer.slice(), size - offset);
+            if (length == -1) {
+                break;
+            }
+            if (length > buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+                larger.put(buffer).flip();
+                buffer = larger;
+            }
+            if (!fill(buffer, offset, length)) {
+                break;
+            }
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            if (!LogPersistenceHandler.isChecksumValid(record, checksum)) {
+                break;
+            }
+            consumer.accept(LogPersistenceHandler.recordType(record), LogPersistenceHandler.decodeKey(record), offset, record);
+            buffer.position(buffer.position() + length);
+            offset += length;
+        }
+        return offset;
+    }
+
+    /**
+     * Makes sure the buffer holds at least length bytes of the segment, starting with the byte at the given offset
+     * at the position of the buffer. Bytes that were already consumed are dropped to make room.
+     *
+     * @return false if the segment ends before
+     */
+    private boolean fill(ByteBuffer buffer, long offset, int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return true;
+        }
+        buffer.compact();
+        long readFrom = offset + buffer.position();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readFrom);
+            if (read == -1) {
+                break;
+            }
+            readFrom += read;
+        }
+        buffer.flip();
+        return buffer.remaining() >= length;
+    }
+
+    /**
+     * @return the length of the record at the given offset as stated by its header, -1 if the header is not valid
+     */
+    int recordLength(long offset) throws IOException {
+        if (size - offset < LogPersistenceHandler.HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LogPersistenceHandler.HEADER_SIZE);
+        read(header, offset);
+        return LogPersistenceHandler.recordLength(header, size - offset);
+    }
+
+    /**
+     * Flushes the content of the segment to the storage device
+     */
+    void force() throws IOException {
+        channel.force(true);
+    }
+
+    /**
+     * Cuts off everything behind the given offset, used to drop incomplete records after a crash
+     */
+    void truncate(long offset) throws IOException {
+        channel.truncate(offset);
+        size = offset;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    interface RecordConsumer {
+        /**
+         * @param type   PUT or TOMBSTONE
+         * @param key    the key of the record
+         * @param offset the offset of the record inside the segment
+         * @param record the raw bytes of the record, only valid until the consumer returns
+         */
+        void accept(byte type, String key, long offset, ByteBuffer record) throws IOException;
+    }
+}
@@ -8,15 +8,23 @@ import de.tum.i13.shared.Pair;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
-public class PersistenceHandler {
+public class PersistenceHandler implements StorageEngine {
+    private static final double KEY_FILTER_FALSE_POSITIVE_RATE = 0.01;
     private final String filePath;
     private File dataFile;
+    /**
+     * Contains every key in the database file, so lookups of absent keys don't have to read the file.
+     * The file is rewritten on every change, the filter is rebuilt along with it.
+     */
+    private BloomFilter keyFilter;
 
     public PersistenceHandler(String filePath, boolean deleteCache) {
         this.filePath = filePath;
@@ -39,6 +47,8 @@ public class PersistenceHandler {
             boolean isFileNotPresent = this.dataFile.createNewFile();
             if (deleteCache && !isFileNotPresent) {
                 writeInFile(dataFile, new ArrayList<>());
+            } else {
+                rebuildKeyFilter(Files.readAllLines(dataFile.toPath()));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -53,7 +63,7 @@ public class PersistenceHandler {
      * @throws IOException if we cannot read the contents of the database file, or if we cannot write in the file the changes
      *                     we have made to its content.
      */
-    public void updateInDB(String key, String value) throws IOException {
+    public synchronized void updateInDB(String key, String value) throws IOException {
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
 
@@ -78,7 +88,7 @@ public class PersistenceHandler {
      * @return KVs in the given range as a list
      * @throws IOException
      */
-    public List<Pair<String, String>> getRangeData(String lowerBound, String upperBound, boolean inRange) throws IOException {
+    public synchronized List<Pair<String, String>> getRangeData(String lowerBound, String upperBound, boolean inRange) throws IOException {
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
         List<Pair<String, String>> kvs = new ArrayList<>();
@@ -98,7 +108,7 @@ public class PersistenceHandler {
      * @throws IOException if we cannot read the contents of the database file, or if we cannot write in the file the changes
      *                     we have made to its content.
      */
-    public void insertInDB(String key, String value) throws IOException {
+    public synchronized void insertInDB(String key, String value) throws IOException {
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
 
@@ -116,7 +126,10 @@ public class PersistenceHandler {
      * @return the value associated with the given key.
      * @throws IOException if we cannot read the contents of the database file
      */
-    public String getFromDB(String key) throws IOException {
+    public synchronized String getFromDB(String key) throws IOException {
+        if (!mightContain(key)) {
+            return null;
+        }
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
         String currentKeyValue = dbContent.stream()
@@ -139,7 +152,10 @@ public class PersistenceHandler {
      * @throws IOException if we cannot read the contents of the database file, or if we cannot write in the file the changes
      *                     we have made to its content.
      */
-    public String deleteFromDB(String key) throws IOException {
+    public synchronized String deleteFromDB(String key) throws IOException {
+        if (!mightContain(key)) {
+            return null;
+        }
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
         String currentKeyValue = dbContent.stream()
@@ -156,7 +172,7 @@ public class PersistenceHandler {
         return key;
     }
 
-    public void addSubscriber(String key, Subscriber subscriber) throws IOException {
+    public synchronized void addSubscriber(String key, Subscriber subscriber) throws IOException {
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
 
@@ -178,7 +194,7 @@ public class PersistenceHandler {
     }
 
     //Doesn't work if we use as sid: "sid"
-    public String removeSubscriber(String key, String sid) throws IOException {
+    public synchronized String removeSubscriber(String key, String sid) throws IOException {
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
 
@@ -205,7 +221,7 @@ public class PersistenceHandler {
     }
 
     //Doesn't work if we use as sid: "sid"
-    public String getSubscriber(String key, String sid) throws IOException {
+    public synchronized String getSubscriber(String key, String sid) throws IOException {
         File database = new File(filePath);
         List<String> dbContent = Files.readAllLines(database.toPath());
 
@@ -233,14 +249,42 @@ public class PersistenceHandler {
      * @throws IOException if we cannot create our writer from the file.
      */
     private void writeInFile(File database, List<String> dbContent) throws IOException {
-        BufferedWriter databaseWriter = Files.newBufferedWriter(database.toPath(), Charset.forName(Constants.TELNET_ENCODING));
-        for (String s : dbContent) {
-            databaseWriter.write(s + "\r");
+        try (BufferedWriter databaseWriter = Files.newBufferedWriter(database.toPath(), Charset.forName(Constants.TELNET_ENCODING))) {
+            for (String s : dbContent) {
+                databaseWriter.write(s + "\r");
+            }
+        }
+        rebuildKeyFilter(dbContent);
+    }
+
+    /**
+     * Fills a new Bloom filter with the keys of the given database content
+     */
+    private void rebuildKeyFilter(List<String> dbContent) {
+        BloomFilter filter = new BloomFilter(Math.max(1024, dbContent.size() * 2), KEY_FILTER_FALSE_POSITIVE_RATE);
+        for (String line : dbContent) {
+            int separatorIndex = line.indexOf(": ");
+            filter.add(separatorIndex == -1 ? line : line.substring(0, separatorIndex));
+        }
+        keyFilter = filter;
+    }
+
+    /**
+     * @return false if the key is definitely not stored in the database file. The filter only knows the writes of
+     * this handler, the file must not be changed by anyone else while it is open.
+     */
+    private boolean mightContain(String key) {
+        return keyFilter == null || keyFilter.mightContain(key);
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(this.filePath), StandardOpenOption.WRITE)) {
+            channel.force(true);
         }
-        databaseWriter.flush();
     }
 
-    public void deleteAllData() {
+    public synchronized void deleteAllData() {
         try {
             writeInFile(new File(this.filePath), new ArrayList<>());
         } catch (IOException e) {
@@ -0,0 +1,87 @@
+package de.tum.i13.KVserver.kv.persistence;
+
+import de.tum.i13.shared.Pair;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A StorageEngine is the persistent layer underneath the cache of a {@link de.tum.i13.KVserver.kv.KVManager}.
+ * Keys handed to a StorageEngine by the KVServer are always MD5 hashes in hex format.
+ */
+public interface StorageEngine {
+
+    /**
+     * Inserts a new key-value pair.
+     *
+     * @param key   The key we want to insert.
+     * @param value The value we want to insert for the given key.
+     * @throws IOException if the storage can not be written.
+     */
+    void insertInDB(String key, String value) throws IOException;
+
+    /**
+     * Updates the value of an already stored key.
+     *
+     * @param key   The key for which we have to change the value.
+     * @param value The new value for the given key.
+     * @throws IOException if the storage can not be written.
+     */
+    void updateInDB(String key, String value) throws IOException;
+
+    /**
+     * @param key The key for which we want to get the associated value.
+     * @return the value associated with the given key, or null if the key is not stored
+     * @throws IOException if the storage can not be read.
+     */
+    String getFromDB(String key) throws IOException;
+
+    /**
+     * Checks whether the key is stored without reading its value. Storage engines that keep an index of their keys
+     * should override this.
+     *
+     * @param key The key we want to look up.
+     * @return true if the key is stored
+     * @throws IOException if the storage can not be read.
+     */
+    default boolean containsInDB(String key) throws IOException {
+        return getFromDB(key) != null;
+    }
+
+    /**
+     * @param key The key we want to delete.
+     * @return the deleted key, or null if the key was not stored
+     * @throws IOException if the storage can not be written.
+     */
+    String deleteFromDB(String key) throws IOException;
+
+    /**
+     * Returns all KVs whose key is inside (or outside) of the circular range between lowerBound and upperBound
+     *
+     * @param lowerBound exclusive lower bound of the range
+     * @param upperBound inclusive upper bound of the range
+     * @param inRange    triggers whether an inRange or outOfRange is filtered
+     * @return KVs in the given range as a list
+     * @throws IOException if the storage can not be read.
+     */
+    List<Pair<String, String>> getRangeData(String lowerBound, String upperBound, boolean inRange) throws IOException;
+
+    /**
+     * Removes every stored key-value pair.
+     */
+    void deleteAllData();
+
+    /**
+     * Forces all writes that were made so far to the storage device.
+     *
+     * @throws IOException if the storage can not be written.
+     */
+    default void sync() throws IOException {
+    }
+
+    /**
+     * Releases the files held by this StorageEngine.
+     */
+    default void close() {
+    }
+}
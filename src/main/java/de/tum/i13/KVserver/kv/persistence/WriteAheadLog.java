@@ -0,0 +1,198 @@
+package de.tum.i13.KVserver.kv.persistence;
+
+import de.tum.i13.KVserver.nio.StartKVServer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The WriteAheadLog records every put and delete that is applied to the cache of the
+ * {@link de.tum.i13.KVserver.kv.KVManager}, before the write is acknowledged. Cached writes only reach the
+ * {@link StorageEngine} on eviction, so after a crash the log is replayed into the StorageEngine to restore them.
+ * Once all cached writes are persisted in the StorageEngine (a checkpoint), the log is cleared.
+ * <p>
+ * The records use the same layout as the records of the {@link LogPersistenceHandler}.
+ * <p>
+ * How often the log is forced to disk is set by the {@link SyncMode}. With ALWAYS every write waits for a force
+ * that covers it, writes that arrive while a force is running are covered together by the next force (group commit),
+ * so concurrent writers share a single force instead of forcing one after the other.
+ */
+public class WriteAheadLog {
+
+    public enum SyncMode {
+        /**
+         * The log is never forced, writes survive a crash of the server but not of the operating system
+         */
+        NONE,
+        /**
+         * The log is forced in a fixed interval, a crash loses at most the writes of the last interval
+         */
+        INTERVAL,
+        /**
+         * A write is only acknowledged after it was forced to disk
+         */
+        ALWAYS
+    }
+
+    private final LogSegment log;
+    private final SyncMode syncMode;
+    private final Object syncLock = new Object();
+    private ScheduledExecutorService syncExecutor;
+
+    /**
+     * Number of bytes appended since the log was opened, it is not reset when the log is cleared
+     */
+    private long appendedPosition;
+    /**
+     * All bytes up to this position are on disk (or were cleared by a checkpoint)
+     */
+    private long syncedPosition;
+    private boolean syncing;
+
+    public WriteAheadLog(Path path, SyncMode syncMode, long syncIntervalMillis) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.log = new LogSegment(path, 0);
+        this.syncMode = syncMode;
+        if (syncMode == SyncMode.INTERVAL) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::syncInterval, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void logPut(String key, String value) throws IOException {
+        write(LogPersistenceHandler.encodeRecord(LogPersistenceHandler.PUT, key, value));
+    }
+
+    public void logDelete(String key) throws IOException {
+        write(LogPersistenceHandler.encodeRecord(LogPersistenceHandler.TOMBSTONE, key, null));
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        long position;
+        synchronized (this) {
+            log.append(record);
+            appendedPosition += record.limit();
+            position = appendedPosition;
+        }
+        if (syncMode == SyncMode.ALWAYS) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Blocks until all bytes up to the given position are on disk. Only one thread forces the log at a time,
+     * the others wait for it and return right away if its force already covered their position.
+     */
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            while (syncing && syncedPosition < position) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the write-ahead log");
+                }
+            }
+            if (syncedPosition >= position) {
+                return;
+            }
+            syncing = true;
+        }
+        long target = position;
+        try {
+            synchronized (this) {
+                // everything appended up to now is covered by the force
+                target = appendedPosition;
+            }
+            log.force();
+            synchronized (syncLock) {
+                syncedPosition = Math.max(syncedPosition, target);
+            }
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void syncInterval() {
+        try {
+            long position;
+            synchronized (this) {
+                position = appendedPosition;
+            }
+            sync(position);
+        } catch (IOException e) {
+            StartKVServer.logger.severe("Could not force the write-ahead log to disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the current size of the log in bytes
+     */
+    public synchronized long size() {
+        return log.size();
+    }
+
+    /**
+     * Applies all complete records of the log to the storage engine and clears the log afterwards.
+     * An incomplete record at the end of the log belongs to a write that was never acknowledged and is skipped.
+     *
+     * @return the number of replayed records
+     */
+    public synchronized int replay(StorageEngine storage) throws IOException {
+        int[] replayed = {0};
+        log.forEachRecord((type, key, offset, record) -> {
+            if (type == LogPersistenceHandler.PUT) {
+                String value = LogPersistenceHandler.decodeValue(record);
+                if (!storage.containsInDB(key)) {
+                    storage.insertInDB(key, value);
+                } else {
+                    storage.updateInDB(key, value);
+                }
+            } else {
+                storage.deleteFromDB(key);
+            }
+            replayed[0]++;
+        });
+        storage.sync();
+        clear();
+        return replayed[0];
+    }
+
+    /**
+     * Empties the log. Must only be called once all logged writes are persisted in the storage engine.
+     */
+    public void clear() throws IOException {
+        long cleared;
+        synchronized (this) {
+            log.truncate(0);
+            log.force();
+            cleared = appendedPosition;
+        }
+        synchronized (syncLock) {
+            // writers that still wait for their force are covered by the checkpoint
+            syncedPosition = Math.max(syncedPosition, cleared);
+            syncLock.notifyAll();
+        }
+    }
+
+    public void close() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+        syncInterval();
+        log.close();
+    }
+}
@@ -0,0 +1,98 @@
+package de.tum.i13.KVserver.nio;
+
+import de.tum.i13.shared.Constants;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connection is the state of a connection of a {@link Reactor} and attached to its selection key.
+ * <p>
+ * The bytes of a connection are read into a buffer of its own that is reused for all its requests and only grows
+ * for large requests. Requests are cut out of the buffer at every \r\n, the search resumes where the last read
+ * ended, so each byte is only scanned once and several requests that arrive in one read are split correctly.
+ */
+class Connection {
+    static final int MAX_REQUEST_LENGTH = 1000000;
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * A buffer that grew beyond this size is replaced by a small one as soon as it is empty
+     */
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    /**
+     * Index of the first byte of the request that is not complete yet
+     */
+    private int requestStart;
+    /**
+     * Index up to which the buffer was searched for \r\n
+     */
+    private int scanned;
+    /**
+     * Holds the requests that wait for a worker, created on the first request if the server has workers
+     */
+    RequestQueue requestQueue;
+
+    /**
+     * Reads what is available on the channel, the buffer is doubled if it is full
+     *
+     * @return number of bytes read, -1 if the remote closed the connection
+     */
+    int read(SocketChannel socketChannel) throws IOException {
+        if (!buffer.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        return socketChannel.read(buffer);
+    }
+
+    /**
+     * @return the next complete request including its \r\n, null if no further request is complete
+     */
+    String nextRequest() throws UnsupportedEncodingException {
+        int end = buffer.position();
+        for (int i = Math.max(scanned, requestStart + 1); i < end; i++) {
+            if (buffer.get(i) == '\n' && buffer.get(i - 1) == '\r') {
+                String request = new String(buffer.array(), requestStart, i + 1 - requestStart, Constants.TELNET_ENCODING);
+                requestStart = i + 1;
+                scanned = requestStart;
+                if (request.equals("\r\n")) {
+                    continue; // empty lines, e.g. from telnet, are skipped
+                }
+                return request;
+            }
+        }
+        compact(end);
+        return null;
+    }
+
+    /**
+     * @return number of bytes of the request that is not complete yet
+     */
+    int pendingLength() {
+        return buffer.position() - requestStart;
+    }
+
+    /**
+     * Moves the incomplete request to the front of the buffer, so the space of the complete ones is reused
+     */
+    private void compact(int end) {
+        scanned = end - requestStart;
+        if (requestStart == 0) {
+            return;
+        }
+        if (requestStart == end && buffer.capacity() > RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        } else {
+            buffer.flip();
+            buffer.position(requestStart);
+            buffer.compact();
+        }
+        requestStart = 0;
+    }
+}
@@ -0,0 +1,255 @@
+package de.tum.i13.KVserver.nio;
+
+import de.tum.i13.shared.CommandProcessor;
+import de.tum.i13.shared.Constants;
+import de.tum.i13.shared.Pair;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A Reactor owns a selector and serves the connections that are registered with it: it reads the requests,
+ * processes them and writes the responses. Every connection belongs to exactly one reactor, so its requests are
+ * processed one after another in the order they arrived, while the reactors of a {@link SimpleNioServer} run in
+ * parallel. A reactor that has the server channel registered also accepts new connections.
+ * <p>
+ * If the server has workers, complete requests are queued per connection and processed by the workers, so a slow
+ * request does not stall the other connections of the reactor. The responses are handed back through
+ * {@link #send}, the pending changes and writes are therefore shared with the workers and guarded by their lists.
+ */
+class Reactor implements Runnable {
+    private final SimpleNioServer server;
+    private final CommandProcessor cmdProcessor;
+    /**
+     * Processes the requests, null to process them on the reactor thread
+     */
+    private final Executor workers;
+    private final List<ChangeRequest> pendingChanges;
+    private final Map<SelectionKey, List<ByteBuffer>> pendingWrites;
+    /**
+     * Connections handed over by the acceptor with their confirmation, they are registered by the reactor thread
+     */
+    private final Queue<Pair<SocketChannel, byte[]>> pendingRegistrations;
+    final Selector selector;
+
+    Reactor(SimpleNioServer server, CommandProcessor cmdProcessor, Executor workers) throws IOException {
+        this.server = server;
+        this.cmdProcessor = cmdProcessor;
+        this.workers = workers;
+        this.pendingChanges = new LinkedList<>();
+        this.pendingWrites = new HashMap<>();
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+        this.selector = SelectorProvider.provider().openSelector();
+    }
+
+    /**
+     * Runs the loop of a reactor thread, the calling thread of {@link SimpleNioServer#start()} runs {@link #loop()}
+     */
+    @Override
+    public void run() {
+        try {
+            loop();
+        } catch (IOException e) {
+            StartKVServer.logger.severe("Reactor " + Thread.currentThread().getName() + " stopped: " + e.getMessage());
+        }
+    }
+
+    //if a "shutdown" is received the loop will terminate
+    void loop() throws IOException {
+        while (!server.isStopped()) {
+            // Register the connections handed over by the acceptor
+            Pair<SocketChannel, byte[]> registration;
+            while ((registration = this.pendingRegistrations.poll()) != null) {
+                SelectionKey registeredKey = registration.getLeft().register(this.selector, SelectionKey.OP_WRITE,
+                        new Connection());
+                synchronized (this.pendingWrites) {
+                    queueForWrite(registeredKey, registration.getRight());
+                }
+            }
+
+            // Process queued interest changes, a worker may have answered on a connection that was closed since
+            synchronized (this.pendingChanges) {
+                for (ChangeRequest change : this.pendingChanges) {
+                    if (change.selectionKey.isValid()) {
+                        change.selectionKey.interestOps(change.ops);
+                    }
+                }
+                this.pendingChanges.clear();
+            }
+
+            // Wait for an event one of the registered channels
+            this.selector.select();
+
+            // Iterate over the set of keys for which events are available
+            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+            while (selectedKeys.hasNext()) {
+                SelectionKey key = selectedKeys.next();
+                selectedKeys.remove();
+
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                // Check what event is available and deal with it
+                if (key.isAcceptable()) {
+                    server.accept(key);
+                } else if (key.isReadable()) {
+                    read(key);
+                } else if (key.isWritable()) {
+                    write(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands an accepted connection over to this reactor, the confirmation is the first message sent on it
+     */
+    void register(SocketChannel socketChannel, byte[] confirmation) {
+        this.pendingRegistrations.add(new Pair<>(socketChannel, confirmation));
+        this.selector.wakeup();
+    }
+
+    void wakeup() {
+        this.selector.wakeup();
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        // Attempt to read off the channel into the buffer of the connection
+        int numRead;
+        try {
+            numRead = connection.read(socketChannel);
+        } catch (IOException e) {
+            InetSocketAddress remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
+            this.cmdProcessor.connectionClosed(remoteAddress.getAddress());
+
+            // The remote forcibly closed the connection, cancel
+            // the selection key and close the channel.
+            key.cancel();
+            socketChannel.close();
+            return;
+        }
+
+        if (numRead == -1) {
+            InetSocketAddress remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
+            this.cmdProcessor.connectionClosed(remoteAddress.getAddress());
+
+            // Remote entity shut the selectionKey down cleanly. Do the
+            // same from our end and cancel the channel.
+            key.channel().close();
+            key.cancel();
+
+            return;
+        }
+
+        // Hand every complete request on to be processed, a pipelined client may have sent several at once
+        String request;
+        while ((request = connection.nextRequest()) != null) {
+            dispatch(key, request);
+        }
+
+        //If somebody funny sends us veeerry long requests, we just close the connection
+        if (connection.pendingLength() > Connection.MAX_REQUEST_LENGTH) {
+            key.cancel();
+            socketChannel.close();
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        synchronized (this.pendingWrites) {
+            List<ByteBuffer> queue = this.pendingWrites.get(key);
+
+            // Write all queued responses with one gathering write, a pipelining client may wait for several.
+            // What does not fit into the selectionKey's buffer stays queued for the next write
+            socketChannel.write(queue.toArray(new ByteBuffer[0]));
+            while (!queue.isEmpty() && !queue.get(0).hasRemaining()) {
+                queue.remove(0);
+            }
+
+            if (queue.isEmpty()) {
+                // We wrote away all data, so we're no longer interested
+                // in writing on this selectionKey. Switch back to waiting for
+                // data.
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Processes the request on this thread if the server has no workers, otherwise appends it to the queue of its
+     * connection and hands the queue to a worker unless one is already draining it
+     */
+    private void dispatch(SelectionKey selectionKey, String request) throws IOException {
+        if (workers == null) {
+            handleRequest(selectionKey, request);
+            return;
+        }
+        Connection connection = (Connection) selectionKey.attachment();
+        if (connection.requestQueue == null) {
+            connection.requestQueue = new RequestQueue(this, selectionKey);
+        }
+        if (connection.requestQueue.add(request)) {
+            workers.execute(connection.requestQueue);
+        }
+    }
+
+    void handleRequest(SelectionKey selectionKey, String request) throws IOException {
+        InetSocketAddress remoteAddress = (InetSocketAddress) ((SocketChannel) selectionKey.channel()).getRemoteAddress();
+
+        // If a client subscribes, we add the ip of the client to the request
+        if (request.startsWith("subscribe")) {
+            request += " " + remoteAddress.getAddress().toString();
+        }
+        String res = cmdProcessor.process(request);
+        if (request.startsWith("shutdown")) {
+            server.stop();
+            System.out.println("Server shutting down");
+            res = "SHUTTING DOWN SERVER";
+        }
+        try {
+
+            send(selectionKey, res.getBytes(Constants.TELNET_ENCODING));
+
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void send(SelectionKey selectionKey, byte[] data) {
+        synchronized (this.pendingChanges) {
+            // Indicate we want the interest ops set changed
+            this.pendingChanges.add(new ChangeRequest(selectionKey, SelectionKey.OP_WRITE));
+
+            // And queue the data we want written
+            synchronized (this.pendingWrites) {
+                queueForWrite(selectionKey, data);
+            }
+        }
+
+        // Finally, wake up our selecting thread so it can make the required
+        // changes
+        this.selector.wakeup();
+    }
+
+    private void queueForWrite(SelectionKey selectionKey, byte[] data) {
+        List<ByteBuffer> queue = this.pendingWrites.get(selectionKey);
+        if (queue == null) {
+            queue = new ArrayList<>();
+            this.pendingWrites.put(selectionKey, queue);
+        }
+        queue.add(ByteBuffer.wrap(data));
+    }
+}
@@ -0,0 +1,74 @@
+package de.tum.i13.KVserver.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * RequestQueue holds the complete requests of one connection that wait for a worker. At most one worker drains
+ * the queue at a time and processes the requests in the order they arrived, so the responses of a connection
+ * are sent in order while different connections are processed in parallel.
+ */
+class RequestQueue implements Runnable {
+    private final Reactor reactor;
+    private final SelectionKey selectionKey;
+    private final Deque<String> requests = new ArrayDeque<>();
+    private boolean running;
+
+    RequestQueue(Reactor reactor, SelectionKey selectionKey) {
+        this.reactor = reactor;
+        this.selectionKey = selectionKey;
+    }
+
+    /**
+     * @return true if no worker is draining the queue yet, the caller then has to hand it to one
+     */
+    synchronized boolean add(String request) {
+        requests.add(request);
+        if (running) {
+            return false;
+        }
+        running = true;
+        return true;
+    }
+
+    /**
+     * Drops the waiting requests and closes the connection, called if the workers were shut down before they
+     * took the queue. Without a worker the queue would stay marked as running and never take a request again.
+     */
+    void discard() {
+        int dropped;
+        synchronized (this) {
+            dropped = requests.size();
+            requests.clear();
+            running = false;
+        }
+        StartKVServer.logger.warning("Server is stopping, dropped " + dropped + " requests and closed their connection");
+        try {
+            selectionKey.cancel();
+            selectionKey.channel().close();
+        } catch (IOException e) {
+            StartKVServer.logger.warning("Could not close the connection: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            String request;
+            synchronized (this) {
+                request = requests.poll();
+                if (request == null) {
+                    running = false;
+                    return;
+                }
+            }
+            try {
+                reactor.handleRequest(selectionKey, request);
+            } catch (IOException e) {
+                StartKVServer.logger.warning("Could not answer a request, the connection was closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package de.tum.i13.KVserver.nio;
+
+import java.io.IOException;
+
+/**
+ * Accepts the connections of a server and answers their requests with a {@link de.tum.i13.shared.CommandProcessor}
+ */
+public interface Server {
+
+    void bindSockets(String servername, int port) throws IOException;
+
+    /**
+     * Serves the connections until a "shutdown" is received
+     */
+    void start() throws IOException;
+}
@@ -4,39 +4,76 @@ import de.tum.i13.shared.CommandProcessor;
 import de.tum.i13.shared.Constants;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
-import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Based on http://rox-xmlrpc.sourceforge.net/niotut/
+ * <p>
+ * With a single reactor the thread calling {@link #start()} accepts and serves all connections in one selector loop.
+ * With more reactors that thread only accepts and hands the connections round-robin to the reactor threads,
+ * each with a selector of its own, so requests of different connections are processed in parallel.
+ * <p>
+ * With workers the reactors only read and write, the requests are processed by a bounded pool of worker threads.
+ * If all workers are busy and their queue is full, the reactor processes the request itself, which slows down
+ * reading until the workers catch up. Once the server is stopped, the requests the workers do not take anymore
+ * are dropped and their connections closed.
  */
-public class SimpleNioServer {
-    private final List<ChangeRequest> pendingChanges;
-    private final Map<SelectionKey, List<ByteBuffer>> pendingWrites;
-    private final Map<SelectionKey, byte[]> pendingReads;
-    private final ByteBuffer readBuffer;
+public class SimpleNioServer implements Server {
     private final CommandProcessor cmdProcessor;
-    private boolean isStopped;
-    private Selector selector;
+    private final int reactorCount;
+    private final ThreadPoolExecutor workers;
+    private volatile boolean isStopped;
+    private Reactor acceptor;
+    private Reactor[] reactors;
+    private int nextReactor;
     private ServerSocketChannel serverChannel;
 
     public SimpleNioServer(CommandProcessor cmdProcessor) {
+        this(cmdProcessor, 1, 0, 0);
+    }
+
+    /**
+     * @param reactorCount    number of selector loops serving the connections, 1 to accept and serve them on the
+     *                        thread calling {@link #start()}
+     * @param workerCount     number of threads processing the requests, 0 to process them on the reactors
+     * @param workerQueueSize number of connections with requests that may wait for a free worker
+     */
+    public SimpleNioServer(CommandProcessor cmdProcessor, int reactorCount, int workerCount, int workerQueueSize) {
         this.cmdProcessor = cmdProcessor;
-        this.pendingChanges = new LinkedList<>();
-        this.pendingWrites = new HashMap<>();
-        this.pendingReads = new HashMap<>();
+        this.reactorCount = reactorCount;
+        if (workerCount > 0) {
+            AtomicInteger workerNumber = new AtomicInteger();
+            this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(workerQueueSize), runnable -> {
+                Thread worker = new Thread(runnable, "worker-" + workerNumber.getAndIncrement());
+                worker.setDaemon(true);
+                return worker;
+            }, SimpleNioServer::rejected);
+        } else {
+            this.workers = null;
+        }
+    }
 
-        this.readBuffer = ByteBuffer.allocate(8192); // = 2^13
+    /**
+     * Runs a request queue the workers did not take on the reactor, or discards it if the workers were shut down
+     */
+    private static void rejected(Runnable requestQueue, ThreadPoolExecutor workers) {
+        if (workers.isShutdown()) {
+            ((RequestQueue) requestQueue).discard();
+        } else {
+            requestQueue.run();
+        }
     }
 
+    @Override
     public void bindSockets(String servername, int port) throws IOException {
         // Create a new non-blocking KVserver selectionKey channel
         this.serverChannel = ServerSocketChannel.open();
@@ -48,45 +85,51 @@ public class SimpleNioServer {
 
         // Register the KVserver selectionKey channel, indicating an interest in
         // accepting new connections
-        this.selector = SelectorProvider.provider().openSelector();
-        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.acceptor = new Reactor(this, cmdProcessor, workers);
+        this.serverChannel.register(acceptor.selector, SelectionKey.OP_ACCEPT);
+
+        if (reactorCount <= 1) {
+            this.reactors = new Reactor[]{acceptor};
+        } else {
+            this.reactors = new Reactor[reactorCount];
+            for (int i = 0; i < reactorCount; i++) {
+                this.reactors[i] = new Reactor(this, cmdProcessor, workers);
+            }
+        }
     }
 
     //if a "shutdown" is received the start() method will terminate
+    @Override
     public void start() throws IOException {
-        while (!isStopped) {
-            // Process queued interest changes
-            for (ChangeRequest change : this.pendingChanges) {
-                change.selectionKey.interestOps(change.ops);
+        for (int i = 0; i < reactors.length; i++) {
+            if (reactors[i] != acceptor) {
+                Thread reactorThread = new Thread(reactors[i], "reactor-" + i);
+                reactorThread.setDaemon(true);
+                reactorThread.start();
             }
-            this.pendingChanges.clear();
-
-            // Wait for an event one of the registered channels
-            this.selector.select();
-
-            // Iterate over the set of keys for which events are available
-            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
-            while (selectedKeys.hasNext()) {
-                SelectionKey key = selectedKeys.next();
-                selectedKeys.remove();
+        }
+        acceptor.loop();
+    }
 
-                if (!key.isValid()) {
-                    continue;
-                }
+    boolean isStopped() {
+        return isStopped;
+    }
 
-                // Check what event is available and deal with it
-                if (key.isAcceptable()) {
-                    accept(key);
-                } else if (key.isReadable()) {
-                    read(key);
-                } else if (key.isWritable()) {
-                    write(key);
-                }
-            }
+    /**
+     * Stops the acceptor and all reactors after their current iteration
+     */
+    void stop() {
+        this.isStopped = true;
+        acceptor.wakeup();
+        for (Reactor reactor : reactors) {
+            reactor.wakeup();
+        }
+        if (workers != null) {
+            workers.shutdown();
         }
     }
 
-    private void accept(SelectionKey key) throws IOException {
+    void accept(SelectionKey key) throws IOException {
 
         // For an accept to be pending the channel must be a KVserver selectionKey channel.
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
@@ -98,173 +141,11 @@ public class SimpleNioServer {
         InetSocketAddress remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
         InetSocketAddress localAddress = (InetSocketAddress) socketChannel.getLocalAddress();
         String confirmation = this.cmdProcessor.connectionAccepted(localAddress, remoteAddress);
-        //send(key, confirmation.getBytes(Constants.TELNET_ENCODING));
-
-        // Register the new SocketChannel with our Selector, indicating
-        // we'd like to be notified when there's data waiting to be read
-        SelectionKey registeredKey = socketChannel.register(this.selector, SelectionKey.OP_WRITE);
-        queueForWrite(registeredKey, confirmation.getBytes(Constants.TELNET_ENCODING));
-    }
-
-    private void read(SelectionKey key) throws IOException {
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-
-        // Clear out our read buffer so it's ready for new data
-        this.readBuffer.clear();
-
-        // Attempt to read off the channel
-        int numRead;
-        try {
-            numRead = socketChannel.read(this.readBuffer);
-        } catch (IOException e) {
-            InetSocketAddress remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
-            this.cmdProcessor.connectionClosed(remoteAddress.getAddress());
-
-            // The remote forcibly closed the connection, cancel
-            // the selection key and close the channel.
-            key.cancel();
-            socketChannel.close();
-            return;
-        }
-
-        if (numRead == -1) {
-            InetSocketAddress remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
-            this.cmdProcessor.connectionClosed(remoteAddress.getAddress());
-
-            // Remote entity shut the selectionKey down cleanly. Do the
-            // same from our end and cancel the channel.
-            key.channel().close();
-            key.cancel();
-
-            return;
-        }
-
-        byte[] dataCopy = new byte[numRead];
-        System.arraycopy(this.readBuffer.array(), 0, dataCopy, 0, numRead);
-
-        // If we have already received some data, we add this to our buffer
-        if (this.pendingReads.containsKey(key)) {
-            byte[] existingBytes = pendingReads.get(key);
-
-            byte[] concatenated = new byte[existingBytes.length + dataCopy.length];
-            System.arraycopy(existingBytes, 0, concatenated, 0, existingBytes.length);
-            System.arraycopy(dataCopy, 0, concatenated, existingBytes.length, dataCopy.length);
-
-            //If somebody funny sends us veeerry long requests, we just close the connection
-            if (concatenated.length > 1000000) {
-                this.pendingReads.remove(key);
-                socketChannel.close();
-            }
-
-            // In case we have now finally reached all characters
-            if (checkIfFinished(concatenated)) {
-                String data = new String(concatenated, Constants.TELNET_ENCODING);
-                this.pendingReads.remove(key);
-                handleRequest(key, data);
-            } else {
-                this.pendingReads.put(key, concatenated);
-            }
-        } else {
-            // In case we got already the whole request within one step we don't
-            // have to wait again
-            // In this case no buffering in the hashtable and start direct
-            // handling the request
-            if (checkIfFinished(dataCopy)) {
-                String data = new String(dataCopy, Constants.TELNET_ENCODING);
-                handleRequest(key, data);
-            } else {
-                // in case it is the first request we
-                if (this.pendingReads.containsKey(key)) {
-                    byte[] existingBytes = this.pendingReads.get(key);
-                    byte[] concatenated = new byte[existingBytes.length + dataCopy.length];
-                    System.arraycopy(existingBytes, 0, concatenated, 0, existingBytes.length);
-                    System.arraycopy(dataCopy, 0, concatenated, existingBytes.length, dataCopy.length);
-
-                    this.pendingReads.put(key, concatenated);
-                } else {
-                    this.pendingReads.put(key, dataCopy);
-                }
-            }
-        }
-    }
-
-    private void write(SelectionKey key) throws IOException {
-        SocketChannel socketChannel = (SocketChannel) key.channel();
-        List<ByteBuffer> queue = this.pendingWrites.get(key);
 
-        // Write until there's no more data left ...
-        while (!queue.isEmpty()) {
-            ByteBuffer buf = queue.get(0);
-            socketChannel.write(buf);
-            if (buf.remaining() > 0) {
-                // ... or the selectionKey's buffer fills up
-                break;
-            }
-            queue.remove(0);
-        }
-
-        if (queue.isEmpty()) {
-            // We wrote away all data, so we're no longer interested
-            // in writing on this selectionKey. Switch back to waiting for
-            // data.
-            key.interestOps(SelectionKey.OP_READ);
-        }
-    }
-
-    // This is telnet specific, maybe you have to change it according to your
-    // protocol
-    private boolean checkIfFinished(byte[] data) {
-        int length = data.length;
-        if (length < 3) {
-            return false;
-        } else {
-            if (data[length - 1] == '\n') {
-                return data[length - 2] == '\r';
-            }
-            return false;
-        }
-    }
-
-    private void handleRequest(SelectionKey selectionKey, String request) throws IOException {
-        InetSocketAddress remoteAddress = (InetSocketAddress) ((SocketChannel) selectionKey.channel()).getRemoteAddress();
-
-        // If a client subscribes, we add the ip of the client to the request
-        if (request.startsWith("subscribe")) {
-            request += " " + remoteAddress.getAddress().toString();
-        }
-        String res = cmdProcessor.process(request);
-        if (request.startsWith("shutdown")) {
-            this.isStopped = true;
-            System.out.println("Server shutting down");
-            res = "SHUTTING DOWN SERVER";
-        }
-        try {
-
-            send(selectionKey, res.getBytes(Constants.TELNET_ENCODING));
-
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void send(SelectionKey selectionKey, byte[] data) {
-        // Indicate we want the interest ops set changed
-        this.pendingChanges.add(new ChangeRequest(selectionKey, SelectionKey.OP_WRITE));
-
-        // And queue the data we want written
-        queueForWrite(selectionKey, data);
-
-        // Finally, wake up our selecting thread so it can make the required
-        // changes
-        this.selector.wakeup();
-    }
-
-    private void queueForWrite(SelectionKey selectionKey, byte[] data) {
-        List<ByteBuffer> queue = this.pendingWrites.get(selectionKey);
-        if (queue == null) {
-            queue = new ArrayList<>();
-            this.pendingWrites.put(selectionKey, queue);
-        }
-        queue.add(ByteBuffer.wrap(data));
+        // Hand the connection to the next reactor, which registers it with its selector and
+        // sends the confirmation before waiting for data to read
+        Reactor reactor = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        reactor.register(socketChannel, confirmation.getBytes(Constants.TELNET_ENCODING));
     }
 }
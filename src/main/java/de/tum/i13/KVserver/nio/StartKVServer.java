@@ -3,7 +3,11 @@ package de.tum.i13.KVserver.nio;
 import de.tum.i13.KVStore.ServerToServerConnection;
 import de.tum.i13.KVserver.kv.KVCommandProcessor;
 import de.tum.i13.KVserver.kv.KVManager;
+import de.tum.i13.KVserver.kv.persistence.LogCompactor;
+import de.tum.i13.KVserver.kv.persistence.LogPersistenceHandler;
 import de.tum.i13.KVserver.kv.persistence.PersistenceHandler;
+import de.tum.i13.KVserver.kv.persistence.StorageEngine;
+import de.tum.i13.KVserver.kv.persistence.WriteAheadLog;
 import de.tum.i13.shared.CommandProcessor;
 import de.tum.i13.shared.Config;
 import de.tum.i13.shared.Pair;
@@ -11,6 +15,7 @@ import de.tum.i13.shared.Range;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.util.logging.Logger;
 
 import static de.tum.i13.shared.Config.parseCommandlineArgs;
@@ -27,11 +32,37 @@ public class StartKVServer {
         logger.info("Config: " + cfg.toString());
         logger.info("starting KVserver");
 
-        PersistenceHandler persistenceHandler = new PersistenceHandler(cfg.dataDir + "/database.txt", true);
+        StorageEngine persistenceHandler = createStorageEngine(cfg);
+        WriteAheadLog writeAheadLog = new WriteAheadLog(cfg.dataDir.resolve("wal-" + cfg.port + ".log"),
+                WriteAheadLog.SyncMode.valueOf(cfg.walSync.toUpperCase()), cfg.walSyncInterval);
+        if (cfg.keepData) {
+            // writes that were only cached when the server crashed are restored before any command is processed
+            int replayed = writeAheadLog.replay(persistenceHandler);
+            if (replayed > 0) {
+                logger.info("Restored " + replayed + " writes from the write-ahead log");
+            }
+        } else {
+            // the storage engine starts empty, the logged writes belong to the data that was wiped with it
+            writeAheadLog.clear();
+        }
 
         KVManager kvManager = cfg.cacheStrategy; // getFromDB strategy read from CL
         kvManager.setPersistenceHandler(persistenceHandler);
+        kvManager.setWriteAheadLog(writeAheadLog, cfg.walMaxSize);
         kvManager.setMaxSize(cfg.cacheSize); // set size to value read from CLA
+        kvManager.setMaxMemory(cfg.cacheMemory);
+        kvManager.setOffHeap(cfg.cacheOffHeap);
+        kvManager.startWriteBehind(cfg.writeBehindMaxPending);
+        kvManager.setMissCacheSize(cfg.missCacheSize);
+        Path warmUpFile = cfg.dataDir.resolve("warm-up-" + cfg.port + ".keys");
+        kvManager.setWarmUp(cfg.warmUp);
+        if (cfg.warmUp) {
+            try {
+                kvManager.loadWarmUpKeys(warmUpFile);
+            } catch (IOException e) {
+                logger.warning("Could not read the keys to warm up the cache with");
+            }
+        }
         kvManager.setLocalWriteRange(new Range(cfg.listenaddr, cfg.port, null, null));
         kvManager.setEcs(cfg.bootstrap);
         kvManager.setRetentionTime(cfg.retentionPeriod);
@@ -48,11 +79,40 @@ public class StartKVServer {
                 logger.info("Deregistration successful. Initiate key transfer");
                 kvProcessor.process(ecsReply);
             }
-            // Clear out persistent database anyway
-            persistenceHandler.deleteAllData();
+            if (cfg.warmUp) {
+                try {
+                    kvManager.saveWarmUpKeys(warmUpFile);
+                } catch (IOException e) {
+                    logger.warning("Could not save the keys to warm up the cache with");
+                }
+            }
+            if (cfg.keepData) {
+                // Keep the data for the next start, the peers only send the KVs that change in the meantime
+                try {
+                    kvManager.flushCacheToDisk();
+                } catch (IOException e) {
+                    logger.warning("Could not persist the cache, it is restored from the write-ahead log on the next start");
+                }
+                persistenceHandler.close();
+            } else {
+                // Clear out persistent database anyway
+                persistenceHandler.deleteAllData();
+                // the logged writes were handed over or deleted as well, they must not be replayed on the next start
+                try {
+                    writeAheadLog.clear();
+                } catch (IOException e) {
+                    logger.warning("Could not clear the write-ahead log");
+                }
+            }
+            writeAheadLog.close();
         }));
 
-        SimpleNioServer sn = new SimpleNioServer(kvProcessor);
+        Server sn;
+        if (cfg.serverMode.equalsIgnoreCase("VIRTUAL")) {
+            sn = new ThreadPerConnectionServer(kvProcessor);
+        } else {
+            sn = new SimpleNioServer(kvProcessor, cfg.reactors, cfg.workerThreads, cfg.workerQueueSize);
+        }
         sn.bindSockets(cfg.listenaddr, cfg.port);
         try {
             new Thread(() -> {
@@ -94,6 +154,20 @@ public class StartKVServer {
         }
     }
 
+    /**
+     * Creates the storage engine selected in the config. The log of the LOG engine is kept in a subdirectory
+     * per port, so multiple KVServers can share the same data directory. Existing data is only reused if the
+     * server is started with keepData.
+     */
+    private static StorageEngine createStorageEngine(Config cfg) {
+        if (cfg.storageEngine.equalsIgnoreCase("TEXT")) {
+            return new PersistenceHandler(cfg.dataDir + "/database.txt", !cfg.keepData);
+        }
+        LogPersistenceHandler log = new LogPersistenceHandler(cfg.dataDir.resolve("log-" + cfg.port), !cfg.keepData, cfg.segmentSize);
+        log.startCompaction(new LogCompactor(cfg.compactionRatio, cfg.compactionSegments, cfg.compactionThroughput));
+        return log;
+    }
+
     /**
      * Method that deregisters this KVServer from the External configuration server by sending a message
      * to it. The message is taken from {@link de.tum.i13.shared.MessagingProtocol} and reads DEREGISTER
@@ -0,0 +1,161 @@
+package de.tum.i13.KVserver.nio;
+
+import de.tum.i13.shared.CommandProcessor;
+import de.tum.i13.shared.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static de.tum.i13.KVserver.nio.StartKVServer.logger;
+
+/**
+ * An alternative to the {@link SimpleNioServer} that serves every connection on a thread of its own with blocking
+ * I/O. The connections are served on virtual threads if the JVM provides them, so idle connections only cost a
+ * small stack on the heap, otherwise on platform threads. The requests are processed by the same
+ * {@link CommandProcessor} and framed the same way, terminated by \r\n.
+ */
+public class ThreadPerConnectionServer implements Server {
+    private static final int MAX_REQUEST_LENGTH = 1000000;
+
+    private final CommandProcessor cmdProcessor;
+    private final ExecutorService connectionThreads;
+    private volatile boolean isStopped;
+    private ServerSocket serverSocket;
+
+    public ThreadPerConnectionServer(CommandProcessor cmdProcessor) {
+        this.cmdProcessor = cmdProcessor;
+        this.connectionThreads = newConnectionExecutor();
+    }
+
+    /**
+     * Virtual threads are looked up by reflection, the server is compiled for a release that does not know them
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            logger.warning("Virtual threads are not available, serving the connections on platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    @Override
+    public void bindSockets(String servername, int port) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(servername), port));
+    }
+
+    //if a "shutdown" is received the start() method will terminate
+    @Override
+    public void start() throws IOException {
+        while (!isStopped) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (isStopped) {
+                    break; // the server socket was closed by the shutdown
+                }
+                throw e;
+            }
+            connectionThreads.execute(() -> serve(socket));
+        }
+        connectionThreads.shutdown();
+    }
+
+    private void stop() {
+        this.isStopped = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.warning("Could not close the server socket");
+        }
+    }
+
+    private void serve(Socket socket) {
+        InetSocketAddress remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
+        InetSocketAddress localAddress = (InetSocketAddress) socket.getLocalSocketAddress();
+        try (socket) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new FlushingInputStream(socket.getInputStream(), out);
+            out.write(cmdProcessor.connectionAccepted(localAddress, remoteAddress).getBytes(Constants.TELNET_ENCODING));
+
+            String request;
+            while ((request = readRequest(in)) != null) {
+                // If a client subscribes, we add the ip of the client to the request
+                if (request.startsWith("subscribe")) {
+                    request += " " + remoteAddress.getAddress().toString();
+                }
+                String res = cmdProcessor.process(request);
+                if (request.startsWith("shutdown")) {
+                    stop();
+                    logger.info("Server shutting down");
+                    res = "SHUTTING DOWN SERVER";
+                }
+                out.write(res.getBytes(Constants.TELNET_ENCODING));
+            }
+        } catch (IOException ignored) {
+            // The remote forcibly closed the connection
+        }
+        cmdProcessor.connectionClosed(remoteAddress.getAddress());
+    }
+
+    /**
+     * Blocks until a request terminated by \r\n was read
+     *
+     * @return the request including \r\n, null if the connection was closed or the request is too long
+     */
+    private static String readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        int previous = -1;
+        int current;
+        while ((current = in.read()) != -1) {
+            request.write(current);
+            if (previous == '\r' && current == '\n') {
+                if (request.size() > 2) {
+                    return request.toString(Constants.TELNET_ENCODING);
+                }
+                request.reset(); // empty lines, e.g. from telnet, are skipped
+            }
+            //If somebody funny sends us veeerry long requests, we just close the connection
+            if (request.size() > MAX_REQUEST_LENGTH) {
+                return null;
+            }
+            previous = current;
+        }
+        return null;
+    }
+
+    /**
+     * Sends the buffered answers before it blocks on reading the socket, so the answers to the pipelined requests
+     * of a read are sent together instead of in a packet each
+     */
+    private static class FlushingInputStream extends BufferedInputStream {
+        private final OutputStream out;
+
+        FlushingInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (pos >= count) {
+                out.flush();
+            }
+            return super.read();
+        }
+    }
+}
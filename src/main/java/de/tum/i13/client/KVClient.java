@@ -97,6 +97,10 @@ public class KVClient {
                     LOGGER.info("The client unsubscribes from " + body[1]);
                     printShellLine(kvStore.unsubscribe(body[1], body[2]).toString());
                 }
+                case "stats" -> {
+                    LOGGER.info("User calls stats");
+                    printShellLine(kvStore.stats().toString());
+                }
                 case "logLevel" -> {
                     LOGGER.info("The client tries set a new log level for the logger.");
                     if (body.length != 2) {
@@ -140,6 +144,7 @@ public class KVClient {
         System.out.println("\tpublish <key> <value> - Publish a Key/value pair. This will notify all subscribers of <key>");
         System.out.println("\tsubscribe <SID> <key> - Subscribe to a key. Any new changes to <key> will be printed");
         System.out.println("\tunsubscribe <SID> <key> - Unsubscribe from a key. Notifications will no longer be received");
+        System.out.println("\tstats - Shows the cache and disk statistics of the connected KVserver");
         System.out.println("\tlogLevel <level> - Sets the logger to the specified log level (ALL | DEBUG | INFO | WARN | ERROR | FATAL | OFF)");
         System.out.println("\thelp - Display this help");
         System.out.println("\tquit - Tears down the active connection to the KVserver and exits the program execution.");
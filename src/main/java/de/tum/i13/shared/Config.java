@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.logging.Level;
 
 public class Config {
@@ -28,12 +29,66 @@ public class Config {
     @CommandLine.Option(names = "-h", description = "Displays help", usageHelp = true)
     public boolean usagehelp;
 
-    @CommandLine.Option(names = "-c", description = "Size of the cache", defaultValue = "100")
+    @CommandLine.Option(names = "-c", description = "Size of the cache, ignored if -cm is set", defaultValue = "100")
     public int cacheSize;
 
-    @CommandLine.Option(names = "-s", description = "Cache displacement strategy", defaultValue = "FIFO")
+    @CommandLine.Option(names = "-cm", description = "Memory budget of the cache, e.g. 512m, replaces the limit of -c, 0 to only limit the number of keys", defaultValue = "0", converter = MemorySizeConverter.class)
+    public long cacheMemory;
+
+    @CommandLine.Option(names = "-oh", description = "Stores the cached values off the heap", defaultValue = "false")
+    public boolean cacheOffHeap;
+
+    @CommandLine.Option(names = "-wb", description = "Number of evicted KVs that may wait for the write-behind thread before a request writes them itself", defaultValue = "10000")
+    public int writeBehindMaxPending;
+
+    @CommandLine.Option(names = "-mc", description = "Number of missing keys that are remembered to answer repeated gets without reading the disk, 0 to disable", defaultValue = "1000")
+    public int missCacheSize;
+
+    @CommandLine.Option(names = "-wu", description = "Preloads the cache with the keys that were cached before the last shutdown or range change", defaultValue = "false")
+    public boolean warmUp;
+
+    @CommandLine.Option(names = "-s", description = "Cache displacement strategy (FIFO, LRU, LFU, LFU_AGING, TINYLFU, ARC, CLOCK)", defaultValue = "FIFO")
     public KVManager cacheStrategy;
 
+    @CommandLine.Option(names = "-e", description = "Storage engine for persisted data (LOG, TEXT)", defaultValue = "LOG")
+    public String storageEngine;
+
+    @CommandLine.Option(names = "-sg", description = "Maximum size of a log segment in bytes", defaultValue = "16777216")
+    public long segmentSize;
+
+    @CommandLine.Option(names = "-cr", description = "Ratio of dead bytes in the log that triggers a compaction", defaultValue = "0.5")
+    public double compactionRatio;
+
+    @CommandLine.Option(names = "-cn", description = "Number of sealed log segments that triggers a compaction", defaultValue = "8")
+    public int compactionSegments;
+
+    @CommandLine.Option(names = "-ct", description = "Maximum compaction throughput in bytes per second, 0 for unlimited", defaultValue = "8388608")
+    public long compactionThroughput;
+
+    @CommandLine.Option(names = "-k", description = "Keeps the stored data on shutdown and reuses it on the next start", defaultValue = "false")
+    public boolean keepData;
+
+    @CommandLine.Option(names = "-ws", description = "When the write-ahead log is forced to disk (NONE, INTERVAL, ALWAYS)", defaultValue = "INTERVAL")
+    public String walSync;
+
+    @CommandLine.Option(names = "-wi", description = "Interval in milliseconds in which the write-ahead log is forced to disk in INTERVAL mode", defaultValue = "100")
+    public long walSyncInterval;
+
+    @CommandLine.Option(names = "-wl", description = "Size of the write-ahead log in bytes that triggers a checkpoint of the cache", defaultValue = "67108864")
+    public long walMaxSize;
+
+    @CommandLine.Option(names = "-io", description = "How connections are served (NIO with reactors and workers, VIRTUAL with a virtual thread per connection)", defaultValue = "NIO")
+    public String serverMode;
+
+    @CommandLine.Option(names = "-rc", description = "Number of reactor threads that serve the connections, each with a selector of its own, 0 for one per core", defaultValue = "0")
+    public int reactors;
+
+    @CommandLine.Option(names = "-wt", description = "Number of worker threads that process the requests, 0 to process them on the reactor threads", defaultValue = "16")
+    public int workerThreads;
+
+    @CommandLine.Option(names = "-wq", description = "Number of connections whose requests may wait for a free worker before the reactors process them themselves", defaultValue = "1024")
+    public int workerQueueSize;
+
     @CommandLine.Option(names = "-ll", description = "LogLevel", defaultValue = "INFO")
     public Level logLevel;
 
@@ -69,6 +124,39 @@ public class Config {
             System.exit(-1);
         }
 
+        if (cfg.writeBehindMaxPending <= 0) {
+            System.err.println("Fatal: Can not allow <= 0 pending writes");
+            System.exit(-1);
+        }
+
+        if (cfg.missCacheSize < 0) {
+            System.err.println("Fatal: Can not instantiate a miss cache < 0");
+            System.exit(-1);
+        }
+
+        if (!cfg.serverMode.equalsIgnoreCase("NIO") && !cfg.serverMode.equalsIgnoreCase("VIRTUAL")) {
+            System.err.println("Fatal: Unknown server mode " + cfg.serverMode);
+            System.exit(-1);
+        }
+
+        if (cfg.reactors < 0) {
+            System.err.println("Fatal: Can not start < 0 reactors");
+            System.exit(-1);
+        }
+        if (cfg.reactors == 0) {
+            cfg.reactors = Runtime.getRuntime().availableProcessors();
+        }
+
+        if (cfg.workerThreads < 0 || cfg.workerQueueSize <= 0) {
+            System.err.println("Fatal: Invalid worker settings");
+            System.exit(-1);
+        }
+
+        if (cfg.cacheMemory < 0) {
+            System.err.println("Fatal: Can not instantiate a cache with a memory budget < 0");
+            System.exit(-1);
+        }
+
         if (!parseResult.errors().isEmpty()) {
             for (Exception ex : parseResult.errors()) {
                 ex.printStackTrace();
@@ -82,6 +170,21 @@ public class Config {
             System.exit(-1);
         }
 
+        if (cfg.segmentSize <= 0 || cfg.compactionRatio <= 0 || cfg.compactionSegments <= 0 || cfg.compactionThroughput < 0) {
+            System.err.println("Fatal: Invalid log segment or compaction settings");
+            System.exit(-1);
+        }
+
+        if (!cfg.storageEngine.equalsIgnoreCase("LOG") && !cfg.storageEngine.equalsIgnoreCase("TEXT")) {
+            System.err.println("Fatal: Unknown storage engine " + cfg.storageEngine);
+            System.exit(-1);
+        }
+
+        if (!List.of("NONE", "INTERVAL", "ALWAYS").contains(cfg.walSync.toUpperCase()) || cfg.walSyncInterval <= 0 || cfg.walMaxSize <= 0) {
+            System.err.println("Fatal: Invalid write-ahead log settings");
+            System.exit(-1);
+        }
+
         return cfg;
     }
 
@@ -92,7 +195,19 @@ public class Config {
                 ", listenaddr='" + listenaddr + '\'' +
                 ", bootstrap=" + bootstrap +
                 ", cacheSize=" + cacheSize +
+                ", cacheMemory=" + cacheMemory +
+                ", cacheOffHeap=" + cacheOffHeap +
+                ", writeBehindMaxPending=" + writeBehindMaxPending +
+                ", missCacheSize=" + missCacheSize +
+                ", warmUp=" + warmUp +
                 ", cacheStrategy=" + cacheStrategy +
+                ", storageEngine=" + storageEngine +
+                ", keepData=" + keepData +
+                ", walSync=" + walSync +
+                ", serverMode=" + serverMode +
+                ", reactors=" + reactors +
+                ", workerThreads=" + workerThreads +
+                ", workerQueueSize=" + workerQueueSize +
                 ", dataDir=" + dataDir +
                 ", logfile=" + logfile +
                 ", logLevel=" + logLevel +
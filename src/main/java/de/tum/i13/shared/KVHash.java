@@ -4,6 +4,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -80,6 +81,14 @@ public class KVHash {
         return messageDigest.digest();
     }
 
+    /**
+     * Returns a short digest of a value, which is used to compare the values stored on two KVServers
+     * without sending the values themselves
+     */
+    public static String valueDigest(String value) {
+        return bytesToHex(Arrays.copyOf(hashKey(value), 8));
+    }
+
     /**
      * Converts a byte-Array to a hexString with uppercase letters
      *
@@ -95,6 +104,17 @@ public class KVHash {
         return new String(hexChars, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Converts a hexString (as created by {@link #bytesToHex(byte[])}) back into its bytes
+     */
+    public static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) + Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
     public static boolean isHash(String key) {
         if (key.length() != 32) {
             return false;
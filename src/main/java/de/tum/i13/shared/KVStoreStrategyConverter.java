@@ -1,9 +1,12 @@
 package de.tum.i13.shared;
 
 import de.tum.i13.KVserver.kv.KVManager;
+import de.tum.i13.KVserver.kv.KVManagerARC;
+import de.tum.i13.KVserver.kv.KVManagerCLOCK;
 import de.tum.i13.KVserver.kv.KVManagerFIFO;
 import de.tum.i13.KVserver.kv.KVManagerLFU;
 import de.tum.i13.KVserver.kv.KVManagerLRU;
+import de.tum.i13.KVserver.kv.KVManagerTinyLFU;
 import picocli.CommandLine;
 
 public class KVStoreStrategyConverter implements CommandLine.ITypeConverter<KVManager> {
@@ -14,6 +17,14 @@ public class KVStoreStrategyConverter implements CommandLine.ITypeConverter<KVMa
                 return new KVManagerLRU(0);
             case "LFU":
                 return new KVManagerLFU(0);
+            case "LFU_AGING":
+                return new KVManagerLFU(0, true);
+            case "TINYLFU":
+                return new KVManagerTinyLFU(0);
+            case "ARC":
+                return new KVManagerARC(0);
+            case "CLOCK":
+                return new KVManagerCLOCK(0);
             default:
                 return new KVManagerFIFO(0);
         }
@@ -0,0 +1,26 @@
+package de.tum.i13.shared;
+
+import picocli.CommandLine;
+
+/**
+ * Converts a memory size like 512m, 64k or 2g (or a plain number of bytes) to bytes
+ */
+public class MemorySizeConverter implements CommandLine.ITypeConverter<Long> {
+    @Override
+    public Long convert(String s) throws Exception {
+        String size = s.trim().toLowerCase();
+        if (size.endsWith("b")) {
+            size = size.substring(0, size.length() - 1);
+        }
+        long unit = 1;
+        switch (size.isEmpty() ? ' ' : size.charAt(size.length() - 1)) {
+            case 'k' -> unit = 1L << 10;
+            case 'm' -> unit = 1L << 20;
+            case 'g' -> unit = 1L << 30;
+            default -> {
+                return Long.parseLong(size);
+            }
+        }
+        return Long.parseLong(size.substring(0, size.length() - 1)) * unit;
+    }
+}
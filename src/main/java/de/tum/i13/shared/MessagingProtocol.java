@@ -41,6 +41,8 @@ public abstract class MessagingProtocol {
         KEYRANGE_READ_SUCCESS, /* Successful keyrange_read */
         KEYRANGE_SUCCESS, /* Keyrange_success - metadata sent */
         SERVER_STOPPED, /* Server_stopped - server currently not accepting requests */
+        STATS, /* Stats - request the statistics of the KVServer */
+        STATS_SUCCESS, /* Stats_success <name>=<value> <name>=<value>... */
 
         /*PUBSUB SERVICE*/
         PUBLISH, /*Message from KVStore to KVServer or KVServer to ECS. This is a request to publish a key value*/
@@ -63,6 +65,8 @@ public abstract class MessagingProtocol {
         START_SERVER, /* A KVServer receives this message, when it is ready to be started
         (i.e. when all the needed keys have been transferred to it) */
         SERVER_WRITE_LOCK, /* Server_write_lock - server currently does not allow write operations */
+        KEY_DIGEST, /* Requests the hashed keys and value digests a KVServer stores in a range, so only changed KVs are transferred */
+        KEY_DIGEST_SUCCESS, /* Key_digest_success <key>:<valueDigest>;<key>:<valueDigest>... */
         PING /* Ping message sent from ECS to KVServers and back to check if the KVServer in question is still reachable */
     }
 }
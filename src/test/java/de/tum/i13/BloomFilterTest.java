@@ -0,0 +1,57 @@
+package de.tum.i13;
+
+import de.tum.i13.KVserver.kv.persistence.BloomFilter;
+import de.tum.i13.KVserver.kv.persistence.PersistenceHandler;
+import de.tum.i13.shared.KVHash;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BloomFilterTest {
+
+    private static String hash(String key) {
+        return KVHash.bytesToHex(KVHash.hashKey(key));
+    }
+
+    @Test
+    public void noFalseNegativesTest() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(hash("key" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(hash("key" + i)));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateTest() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(hash("key" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(hash("absent" + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+
+    @Test
+    public void persistenceHandlerFilterTest() throws IOException {
+        PersistenceHandler handler = new PersistenceHandler("testDB/bloomFilterTest.txt", true);
+        handler.insertInDB(hash("foo"), "bar");
+        assertEquals("bar", handler.getFromDB(hash("foo")));
+        assertNull(handler.getFromDB(hash("unknown")));
+        assertNull(handler.deleteFromDB(hash("unknown")));
+        assertEquals(hash("foo"), handler.deleteFromDB(hash("foo")));
+        assertNull(handler.getFromDB(hash("foo")));
+        handler.deleteAllData();
+    }
+}
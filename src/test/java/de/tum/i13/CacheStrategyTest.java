@@ -0,0 +1,553 @@
+package de.tum.i13;
+
+import de.tum.i13.KVserver.kv.KVManager;
+import de.tum.i13.KVserver.kv.KVManagerARC;
+import de.tum.i13.KVserver.kv.KVManagerCLOCK;
+import de.tum.i13.KVserver.kv.KVManagerFIFO;
+import de.tum.i13.KVserver.kv.KVManagerLFU;
+import de.tum.i13.KVserver.kv.KVManagerLRU;
+import de.tum.i13.KVserver.kv.KVManagerTinyLFU;
+import de.tum.i13.KVserver.kv.persistence.StorageEngine;
+import de.tum.i13.KVserver.nio.StartKVServer;
+import de.tum.i13.shared.KVHash;
+import de.tum.i13.shared.Pair;
+import de.tum.i13.shared.Range;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheStrategyTest {
+
+    private static String hash(String key) {
+        return KVHash.bytesToHex(KVHash.hashKey(key));
+    }
+
+    /**
+     * Sets up the KVManager as the only server of the ring, backed by a mocked storage engine
+     */
+    private static StorageEngine setUp(KVManager kvManager, int cacheSize) {
+        StorageEngine storage = mock(StorageEngine.class);
+        Range range = new Range("127.0.0.1", 5153, "00000000000000000000000000000000", "00000000000000000000000000000000");
+        kvManager.setPersistenceHandler(storage);
+        kvManager.setMaxSize(cacheSize);
+        kvManager.setLocalWriteRange(range);
+        kvManager.setWriteRanges(List.of(range));
+        kvManager.setReplicationData(List.of(range));
+        kvManager.updateLocalRanges();
+        kvManager.server_stopped = false;
+        return storage;
+    }
+
+    @Test
+    public void lruEvictsLeastRecentlyUsedTest() throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        StorageEngine storage = setUp(lru, 3);
+        lru.put("key1", "value1", false);
+        lru.put("key2", "value2", false);
+        lru.put("key3", "value3", false);
+        lru.get("key1");
+        lru.put("key4", "value4", false);
+
+        assertFalse(lru.cache.containsKey(hash("key2")));
+        assertTrue(lru.cache.containsKey(hash("key1")));
+        assertEquals(3, lru.cache.size());
+        lru.flushPendingWrites(); // evicted KVs are written in the background
+        verify(storage).insertInDB(hash("key2"), "value2");
+        verify(storage).containsInDB(hash("key2"));
+        verify(storage, never()).getFromDB(hash("key2")); // the stored value is not needed to write it
+
+        lru.put("key3", "updated", false); // key1 is now the least recently used key
+        lru.put("key5", "value5", false);
+        assertFalse(lru.cache.containsKey(hash("key1")));
+        assertTrue(lru.cache.containsKey(hash("key3")));
+    }
+
+    @Test
+    public void clockGivesReferencedKeysASecondChanceTest() throws Exception {
+        KVManager clock = new KVManagerCLOCK(0);
+        StorageEngine storage = setUp(clock, 3);
+        clock.put("key1", "value1", false);
+        clock.put("key2", "value2", false);
+        clock.put("key3", "value3", false);
+        clock.get("key1");
+        clock.put("key4", "value4", false); // the hand clears the bit of key1 and evicts key2
+
+        assertFalse(clock.cache.containsKey(hash("key2")));
+        assertTrue(clock.cache.containsKey(hash("key1")));
+        clock.flushPendingWrites();
+        verify(storage).insertInDB(hash("key2"), "value2");
+
+        clock.put("key5", "value5", false); // the hand continues at key3
+        assertFalse(clock.cache.containsKey(hash("key3")));
+
+        clock.delete("key1", false);
+        clock.put("key6", "value6", false); // takes the slot of key1 without evicting
+        assertTrue(clock.cache.containsKey(hash("key4")));
+        assertTrue(clock.cache.containsKey(hash("key5")));
+        assertEquals(3, clock.cache.size());
+    }
+
+    @Test
+    public void slowWriteBehindDoesNotBlockRequestsTest() throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        StorageEngine storage = setUp(lru, 2);
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch diskDone = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writeStarted.countDown();
+            diskDone.await();
+            return null;
+        }).when(storage).insertInDB(hash("key1"), "value1");
+        lru.startWriteBehind(100);
+        lru.put("key1", "value1", false);
+        lru.put("key2", "value2", false);
+        lru.put("key3", "value3", false); // evicts key1, the background thread hangs in its write
+        writeStarted.await();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            lru.put("key4", "value4", false); // evicts key2 while key1 is written
+            assertEquals("value1", lru.get("key1").toString().split(" ")[2]); // still pending
+        });
+
+        // the delete waits for the write in progress, so it can not bring the key back afterwards
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> delete = executor.submit(() -> lru.delete("key1", false).toString());
+        Thread.sleep(100);
+        assertFalse(delete.isDone());
+        diskDone.countDown();
+        assertEquals("delete_success key1", delete.get());
+        executor.shutdown();
+        InOrder order = inOrder(storage);
+        order.verify(storage).insertInDB(hash("key1"), "value1");
+        order.verify(storage).deleteFromDB(hash("key1"));
+    }
+
+    @Test
+    public void writeBehindTest() throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        StorageEngine storage = setUp(lru, 2);
+        when(storage.getFromDB(hash("stored"))).thenReturn("value");
+        lru.get("stored"); // clean
+        lru.put("key1", "value1", false); // dirty
+        lru.put("key2", "value2", false); // evicts the clean KV without writing it
+        lru.put("key3", "value3", false); // evicts key1, its write is pending
+        verify(storage, never()).insertInDB(anyString(), anyString());
+        verify(storage, never()).updateInDB(anyString(), anyString());
+        assertEquals("1", lru.getStats().get("pending_writes"));
+
+        assertEquals("value1", lru.get("key1").toString().split(" ")[2]); // served from the pending write
+        assertEquals("delete_success key1", lru.delete("key1", false).toString());
+        lru.flushPendingWrites();
+        verify(storage, never()).insertInDB(eq(hash("key1")), anyString());
+
+        lru.flushCacheToDisk();
+        verify(storage).insertInDB(hash("key3"), "value3");
+        verify(storage, never()).insertInDB(eq(hash("stored")), anyString());
+        verify(storage, never()).updateInDB(eq(hash("stored")), anyString());
+    }
+
+    @Test
+    public void missingKeysAreRememberedTest() throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        StorageEngine storage = setUp(lru, 1);
+        assertEquals("get_error missing", lru.get("missing").toString());
+        assertEquals("get_error missing", lru.get("missing").toString());
+        verify(storage, times(1)).getFromDB(hash("missing"));
+
+        lru.put("missing", "value", false);
+        lru.put("other", "value", false); // evicts missing
+        lru.flushPendingWrites();
+        when(storage.getFromDB(hash("missing"))).thenReturn("value");
+        assertEquals("get_success missing value", lru.get("missing").toString());
+
+        lru.delete("missing", false);
+        when(storage.getFromDB(hash("missing"))).thenReturn(null);
+        assertEquals("get_error missing", lru.get("missing").toString());
+        // the first miss and the load after the eviction, the last get is answered from memory
+        verify(storage, times(2)).getFromDB(hash("missing"));
+    }
+
+    @Test
+    public void statisticsTest() throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        setUp(lru, 1);
+        InMemoryStorage storage = new InMemoryStorage();
+        lru.setPersistenceHandler(storage);
+        lru.put("a", "1", false);
+        lru.get("a");
+        lru.put("b", "2", false); // evicts a
+        lru.get("a"); // read from disk, evicts b
+        lru.get("missing");
+        lru.flushPendingWrites();
+
+        Map<String, String> stats = lru.getStats();
+        assertEquals("1", stats.get("hits"));
+        assertEquals("2", stats.get("misses"));
+        assertEquals("0.3333", stats.get("hit_ratio"));
+        assertEquals("2", stats.get("evictions"));
+        assertEquals("2", stats.get("disk_writes"));
+    }
+
+    @Test
+    public void warmUpTest(@TempDir Path dir) throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        setUp(lru, 3);
+        InMemoryStorage storage = new InMemoryStorage();
+        lru.setPersistenceHandler(storage);
+        for (int i = 0; i < 5; i++) {
+            lru.put("key" + i, "value" + i, false);
+        }
+        lru.flushCacheToDisk();
+        Path warmUpFile = dir.resolve("warm-up.keys");
+        lru.saveWarmUpKeys(warmUpFile); // key2, key3 and key4 were cached before the flush
+
+        KVManager restarted = new KVManagerCLOCK(0);
+        setUp(restarted, 3);
+        restarted.setPersistenceHandler(storage);
+        restarted.setWarmUp(true);
+        restarted.loadWarmUpKeys(warmUpFile);
+        restarted.startWarmUp();
+        for (int i = 0; i < 50 && !restarted.getStats().get("cached_keys").equals("3"); i++) {
+            Thread.sleep(100); // the cache is warmed up in the background
+        }
+        assertEquals(3, restarted.cache.size());
+        for (int i = 2; i < 5; i++) {
+            assertEquals("value" + i, restarted.cache.get(hash("key" + i)));
+        }
+    }
+
+    @Test
+    public void lfuEvictsLeastFrequentlyUsedTest() throws Exception {
+        KVManager lfu = new KVManagerLFU(0);
+        StorageEngine storage = setUp(lfu, 3);
+        lfu.put("key1", "value1", false);
+        lfu.put("key2", "value2", false);
+        lfu.put("key3", "value3", false);
+        lfu.get("key1");
+        lfu.get("key1");
+        lfu.get("key3");
+        lfu.put("key4", "value4", false);
+
+        assertFalse(lfu.cache.containsKey(hash("key2")));
+        lfu.flushPendingWrites();
+        verify(storage).insertInDB(hash("key2"), "value2");
+
+        // key3 and key4 were both used once, key4 was used more recently
+        lfu.get("key4");
+        lfu.get("key3");
+        lfu.put("key5", "value5", false);
+        assertFalse(lfu.cache.containsKey(hash("key4")));
+        assertTrue(lfu.cache.containsKey(hash("key3")));
+        assertTrue(lfu.cache.containsKey(hash("key1")));
+    }
+
+    @Test
+    public void lfuAgingHalvesFrequenciesTest() throws Exception {
+        KVManagerLFU lfu = new KVManagerLFU(0, true);
+        setUp(lfu, 2);
+        lfu.put("hot", "value", false);
+        for (int i = 0; i < 15; i++) {
+            lfu.get("hot");
+        }
+        // the 20th use halves all frequencies
+        for (int i = 0; i < 4; i++) {
+            lfu.put("other", "value" + i, false);
+        }
+        assertEquals(8, lfu.getFrequency(hash("hot")));
+        assertEquals(2, lfu.getFrequency(hash("other")));
+    }
+
+    @Test
+    public void arcAdaptsToGhostHitsTest() throws Exception {
+        KVManager arc = new KVManagerARC(0);
+        StorageEngine storage = setUp(arc, 4);
+        for (int i = 1; i <= 4; i++) {
+            arc.put("key" + i, "value" + i, false);
+        }
+        arc.get("key1");
+        arc.get("key2");
+        arc.put("key5", "value5", false); // evicts key3, the least recently used key that was only used once
+
+        assertFalse(arc.cache.containsKey(hash("key3")));
+        arc.flushPendingWrites();
+        verify(storage).insertInDB(hash("key3"), "value3");
+        assertEquals("0", arc.getStats().get("arc_target"));
+        assertEquals("1", arc.getStats().get("arc_b1"));
+
+        // key3 was evicted too early, so the share of recently used keys grows
+        arc.put("key3", "updated", false);
+        Map<String, String> stats = arc.getStats();
+        assertEquals("ARC", stats.get("strategy"));
+        assertEquals("1", stats.get("arc_target"));
+        assertEquals("1", stats.get("arc_t1"));
+        assertEquals("3", stats.get("arc_t2"));
+        assertFalse(arc.cache.containsKey(hash("key4")));
+        assertTrue(arc.cache.containsKey(hash("key3")));
+        assertEquals(4, arc.cache.size());
+    }
+
+    @Test
+    public void memoryBudgetTest() throws Exception {
+        KVManager[] strategies = {new KVManagerFIFO(0), new KVManagerLRU(0), new KVManagerLFU(0), new KVManagerTinyLFU(0),
+                new KVManagerARC(0), new KVManagerCLOCK(0)};
+        String value = "v".repeat(1000);
+        for (KVManager kvManager : strategies) {
+            setUp(kvManager, 100);
+            InMemoryStorage storage = new InMemoryStorage();
+            kvManager.setPersistenceHandler(storage);
+            kvManager.setMaxMemory(10_000);
+            for (int i = 0; i < 30; i++) {
+                kvManager.put("key" + i, value, false);
+                kvManager.get("key" + (i / 2));
+            }
+            long cachedBytes = Long.parseLong(kvManager.getStats().get("cached_bytes"));
+            assertTrue(cachedBytes <= 10_000, kvManager + " uses " + cachedBytes + " bytes");
+            assertTrue(kvManager.cache.size() >= 5, kvManager.toString());
+            kvManager.flushPendingWrites();
+            for (int i = 0; i < 30; i++) {
+                assertTrue(kvManager.cache.containsKey(hash("key" + i)) || storage.data.containsKey(hash("key" + i)));
+            }
+
+            // a value larger than the budget is either evicted itself or displaces all other keys
+            kvManager.put("large", "v".repeat(20_000), false);
+            kvManager.flushPendingWrites();
+            assertTrue(kvManager.cache.containsKey(hash("large")) ? kvManager.cache.size() == 1
+                    : storage.data.containsKey(hash("large")), kvManager.toString());
+        }
+    }
+
+    @Test
+    public void memoryBudgetReplacesKeyLimitTest() throws Exception {
+        KVManager[] strategies = {new KVManagerFIFO(0), new KVManagerLRU(0), new KVManagerLFU(0, true),
+                new KVManagerTinyLFU(0), new KVManagerARC(0), new KVManagerCLOCK(0)};
+        for (KVManager kvManager : strategies) {
+            setUp(kvManager, 5);
+            kvManager.setPersistenceHandler(new InMemoryStorage());
+            kvManager.setMaxMemory(1_000_000);
+            for (int i = 0; i < 1000; i++) {
+                kvManager.put("key" + i, "value" + i, false);
+                kvManager.get("key" + (i / 2));
+            }
+            // the budget fits all keys, so neither -c nor the initial size of the strategy evicts any of them
+            assertEquals(1000, kvManager.cache.size(), kvManager.toString());
+            assertEquals("0", kvManager.getStats().get("evictions"), kvManager.toString());
+
+            kvManager.setMaxMemory(50_000);
+            for (int i = 1000; i < 2000; i++) {
+                kvManager.put("key" + i, "value" + i, false);
+            }
+            long cachedBytes = Long.parseLong(kvManager.getStats().get("cached_bytes"));
+            assertTrue(cachedBytes <= 50_000, kvManager + " uses " + cachedBytes + " bytes");
+            assertTrue(kvManager.cache.size() > 5, kvManager.toString());
+        }
+    }
+
+    @Test
+    public void offHeapCacheTest() throws Exception {
+        KVManager lru = new KVManagerLRU(0);
+        setUp(lru, 3);
+        InMemoryStorage storage = new InMemoryStorage();
+        lru.setPersistenceHandler(storage);
+        lru.put("key1", "value1", false);
+        lru.setOffHeap(true); // moves the cached values
+        assertEquals("value1", lru.get("key1").toString().split(" ")[2]);
+
+        String large = "\u00e4\u20ac".repeat(300_000); // needs a slab larger than the default slab size
+        lru.put("key2", "h\u00e9llo w\u00f6rld", false);
+        lru.put("key3", large, false);
+        lru.put("key2", "updated", false);
+        assertEquals("updated", lru.cache.get(hash("key2")));
+        assertEquals(large, lru.cache.get(hash("key3")));
+
+        lru.put("key4", "value4", false); // evicts key1
+        lru.flushPendingWrites();
+        assertEquals("value1", storage.data.get(hash("key1")));
+        lru.delete("key2", false);
+        assertFalse(lru.cache.containsKey(hash("key2")));
+        assertEquals(2, lru.cache.size());
+        assertTrue(Long.parseLong(lru.getStats().get("off_heap_bytes")) > 1_000_000);
+
+        lru.flushCacheToDisk();
+        assertEquals(0, lru.cache.size());
+        assertEquals(large, storage.data.get(hash("key3")));
+        // the slab of the large value is released, the slab of the small values is kept for reuse
+        assertEquals(String.valueOf(1 << 20), lru.getStats().get("off_heap_bytes"));
+
+        for (int i = 0; i < 20000; i++) { // 20000 chunks of 64 bytes need two slabs
+            lru.cache.put(hash("many" + i), "value" + i);
+        }
+        assertEquals(String.valueOf(2 << 20), lru.getStats().get("off_heap_bytes"));
+        for (int i = 0; i < 20000; i++) {
+            assertEquals("value" + i, lru.cache.remove(hash("many" + i)));
+        }
+        assertEquals(String.valueOf(1 << 20), lru.getStats().get("off_heap_bytes"));
+    }
+
+    @Test
+    public void concurrentRequestsTest() throws Exception {
+        for (KVManager kvManager : new KVManager[]{new KVManagerLRU(0), new KVManagerCLOCK(0), new KVManagerARC(0)}) {
+            setUp(kvManager, 50);
+            InMemoryStorage storage = new InMemoryStorage();
+            kvManager.setPersistenceHandler(storage);
+            kvManager.setMaxMemory(8_000);
+            Level logLevel = StartKVServer.logger.getLevel();
+            StartKVServer.logger.setLevel(Level.WARNING);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> results = new ArrayList<>();
+            try {
+                for (int t = 0; t < 8; t++) {
+                    int thread = t;
+                    results.add(executor.submit(() -> {
+                        Random random = new Random(thread);
+                        for (int i = 0; i < 2000; i++) {
+                            String key = "key" + random.nextInt(200);
+                            if (i % 10 == 0) {
+                                kvManager.delete(key, false);
+                            } else if (i % 3 == 0) {
+                                kvManager.put(key, "value" + thread, false);
+                            } else {
+                                kvManager.get(key);
+                            }
+                        }
+                        // keys owned by this thread must keep their last value
+                        for (int i = 0; i < 20; i++) {
+                            kvManager.put("own" + thread + "-" + i, "value" + i, false);
+                            kvManager.get("key" + random.nextInt(200));
+                        }
+                        for (int i = 0; i < 20; i++) {
+                            assertEquals("value" + i, kvManager.get("own" + thread + "-" + i).toString().split(" ")[2]);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdown();
+                StartKVServer.logger.setLevel(logLevel);
+            }
+            assertTrue(kvManager.cache.size() <= 50, kvManager.toString());
+            long cachedBytes = 0;
+            for (Map.Entry<String, String> entry : kvManager.cache.entrySet()) {
+                cachedBytes += entry.getKey().length() + entry.getValue().length() + 128; // entry and String overhead
+            }
+            assertEquals(String.valueOf(cachedBytes), kvManager.getStats().get("cached_bytes"), kvManager.toString());
+        }
+    }
+
+    @Test
+    public void tinyLfuResistsScansTest() throws Exception {
+        KVManager[] strategies = {new KVManagerFIFO(0), new KVManagerLRU(0), new KVManagerLFU(0), new KVManagerTinyLFU(0),
+                new KVManagerARC(0), new KVManagerCLOCK(0)};
+        double[] hitRatios = new double[strategies.length];
+        Level logLevel = StartKVServer.logger.getLevel();
+        StartKVServer.logger.setLevel(Level.WARNING);
+        try {
+            for (int i = 0; i < strategies.length; i++) {
+                hitRatios[i] = hitRatioUnderScans(strategies[i]);
+            }
+        } finally {
+            StartKVServer.logger.setLevel(logLevel);
+        }
+        // a scan flushes the hot keys out of the FIFO and LRU caches, but is not admitted by TinyLFU
+        assertTrue(hitRatios[3] > hitRatios[0]);
+        assertTrue(hitRatios[3] > hitRatios[1]);
+        assertTrue(hitRatios[3] > 0.8);
+        // ARC keeps the hot keys in t2, the scans only cycle through t1
+        assertTrue(hitRatios[4] > hitRatios[1]);
+    }
+
+    /**
+     * Reads 50 hot keys in a skewed pattern, interrupted by scans over keys that are read only once
+     *
+     * @return share of the reads that were served from the cache
+     */
+    private static double hitRatioUnderScans(KVManager kvManager) throws Exception {
+        setUp(kvManager, 100);
+        InMemoryStorage storage = new InMemoryStorage();
+        kvManager.setPersistenceHandler(storage);
+        Random random = new Random(42);
+        int hits = 0;
+        int reads = 0;
+        int scanKey = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 500; i++) {
+                String key = "hot" + (int) (50 * Math.pow(random.nextDouble(), 2));
+                storage.data.putIfAbsent(hash(key), "value");
+                if (kvManager.cache.containsKey(hash(key))) {
+                    hits++;
+                }
+                reads++;
+                kvManager.get(key);
+            }
+            for (int i = 0; i < 200; i++) {
+                String key = "scan" + scanKey++;
+                storage.data.put(hash(key), "value");
+                kvManager.get(key);
+            }
+        }
+        return (double) hits / reads;
+    }
+
+    private static class InMemoryStorage implements StorageEngine {
+        final Map<String, String> data = new HashMap<>();
+
+        @Override
+        public synchronized void insertInDB(String key, String value) {
+            data.put(key, value);
+        }
+
+        @Override
+        public synchronized void updateInDB(String key, String value) {
+            data.put(key, value);
+        }
+
+        @Override
+        public synchronized String getFromDB(String key) {
+            return data.get(key);
+        }
+
+        @Override
+        public synchronized String deleteFromDB(String key) {
+            return data.remove(key) == null ? null : key;
+        }
+
+        @Override
+        public synchronized List<Pair<String, String>> getRangeData(String lowerBound, String upperBound, boolean inRange) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public synchronized void deleteAllData() {
+            data.clear();
+        }
+    }
+}
@@ -2,12 +2,15 @@ package de.tum.i13;
 
 import de.tum.i13.KVserver.kv.KVCommandProcessor;
 import de.tum.i13.KVserver.kv.KVManager;
+import de.tum.i13.shared.KVHash;
 import de.tum.i13.shared.KVMessage;
 import de.tum.i13.shared.MessagingProtocol;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
 
 public class KVCommandProcessorTest {
@@ -61,4 +64,15 @@ public class KVCommandProcessorTest {
         kvcp.process("put_hash " + hashedKey + " value");
         verify(kv).put(hashedKey, "value", true);
     }
+
+    @Test
+    public void correctParsingOfKeyDigest() throws Exception {
+        KVManager kv = mock(KVManager.class);
+        KVCommandProcessor kvcp = new KVCommandProcessor(kv);
+        String hashedKey = "12345678901234567890123456789012";
+        when(kv.getKeyDigest("00", "FF")).thenReturn(Map.of(hashedKey, KVHash.valueDigest("value")));
+        String response = kvcp.process("key_digest 00 FF");
+        verify(kv).getKeyDigest("00", "FF");
+        assertEquals("key_digest_success " + hashedKey + ":" + KVHash.valueDigest("value") + ";\r\n", response);
+    }
 }
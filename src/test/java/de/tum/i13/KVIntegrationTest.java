@@ -4,6 +4,7 @@ import de.tum.i13.KVStore.KVStore;
 import de.tum.i13.KVserver.nio.StartKVServer;
 import de.tum.i13.ecs.StartECS;
 import de.tum.i13.shared.KVHash;
+import de.tum.i13.shared.KVMessage;
 import de.tum.i13.shared.Pair;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -15,6 +16,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -147,6 +149,46 @@ public class KVIntegrationTest {
         assertThat(doRequest(s, "delete " + keyHash), is(equalTo("delete_success " + keyHash)));
     }
 
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress("127.0.0.1", portKV));
+        BufferedReader input = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        input.readLine(); // welcome message
+        String keyHash = KVHash.bytesToHex(KVHash.hashKey("pipelined"));
+        OutputStream output = s.getOutputStream();
+        output.write(("put " + keyHash + " booga\r\nput " + keyHash + " looga\r\nget " + keyHash + "\r\ndelete "
+                + keyHash + "\r\n").getBytes(StandardCharsets.UTF_8));
+        output.flush();
+        assertThat(input.readLine(), is(equalTo("put_success " + keyHash)));
+        assertThat(input.readLine(), is(equalTo("put_update " + keyHash)));
+        assertThat(input.readLine(), is(equalTo("get_success " + keyHash + " looga")));
+        assertThat(input.readLine(), is(equalTo("delete_success " + keyHash)));
+        s.close();
+    }
+
+    @Test
+    public void testPutAll() {
+        KVStore kvStore = new KVStore();
+        kvStore.buildConnection(new Pair<>("127.0.0.1", portKV));
+        assertThat(kvStore.put("bulk0", "old").toString(), is(equalTo("put_success bulk0")));
+
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            pairs.put("bulk" + i, "value" + i);
+        }
+        List<KVMessage> answers = kvStore.putAll(pairs);
+        assertThat(answers.get(0).toString(), is(equalTo("put_update bulk0")));
+        for (int i = 1; i < 20; i++) {
+            assertThat(answers.get(i).toString(), is(equalTo("put_success bulk" + i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertThat(kvStore.get("bulk" + i).toString(), is(equalTo("get_success bulk" + i + " value" + i)));
+            kvStore.delete("bulk" + i);
+        }
+        kvStore.closeCurrentConnection();
+    }
+
     @Test
     public void testMultilineValue() {
         Map<String, String> pairs = new HashMap<>();
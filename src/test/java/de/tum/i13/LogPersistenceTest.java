@@ -0,0 +1,233 @@
+package de.tum.i13;
+
+import de.tum.i13.KVserver.kv.persistence.LogPersistenceHandler;
+import de.tum.i13.shared.KVHash;
+import de.tum.i13.shared.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LogPersistenceTest {
+
+    private static final Path LOG_DIR = Path.of("testDB/logPersistenceTest");
+    private LogPersistenceHandler handler;
+
+    private static String hash(String key) {
+        return KVHash.bytesToHex(KVHash.hashKey(key));
+    }
+
+    @BeforeEach
+    public void createNewLog() {
+        handler = new LogPersistenceHandler(LOG_DIR, true, 256);
+    }
+
+    @Test
+    public void putAndGetTest() throws IOException {
+        handler.insertInDB(hash("foo"), "bar");
+        assertEquals("bar", handler.getFromDB(hash("foo")));
+        assertNull(handler.getFromDB(hash("unknown")));
+    }
+
+    @Test
+    public void updateTest() throws IOException {
+        handler.insertInDB(hash("foo"), "bar");
+        handler.updateInDB(hash("foo"), "barbar");
+        assertEquals("barbar", handler.getFromDB(hash("foo")));
+        assertEquals(1, handler.size());
+    }
+
+    @Test
+    public void deleteTest() throws IOException {
+        handler.insertInDB(hash("foo"), "bar");
+        assertTrue(handler.containsInDB(hash("foo")));
+        assertEquals(hash("foo"), handler.deleteFromDB(hash("foo")));
+        assertFalse(handler.containsInDB(hash("foo")));
+        assertNull(handler.getFromDB(hash("foo")));
+        assertNull(handler.deleteFromDB(hash("foo")));
+    }
+
+    @Test
+    public void valueWithLineBreaksTest() throws IOException {
+        handler.insertInDB(hash("foo"), "line1\r\nline2\rline3");
+        assertEquals("line1\r\nline2\rline3", handler.getFromDB(hash("foo")));
+    }
+
+    @Test
+    public void reopenRestoresIndexTest() throws IOException {
+        // with a segment size of 256 bytes this spans multiple segments
+        for (int i = 0; i < 20; i++) {
+            handler.insertInDB(hash("key" + i), "value" + i);
+        }
+        handler.updateInDB(hash("key3"), "updated");
+        handler.deleteFromDB(hash("key4"));
+        handler.close();
+
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertEquals(19, handler.size());
+        assertEquals("updated", handler.getFromDB(hash("key3")));
+        assertNull(handler.getFromDB(hash("key4")));
+        assertEquals("value19", handler.getFromDB(hash("key19")));
+    }
+
+    @Test
+    public void rangeDataTest() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            handler.insertInDB(hash("key" + i), "value" + i);
+        }
+        handler.compact(); // parts of the data are now in the sorted segment
+        handler.insertInDB(hash("key50"), "value50");
+
+        String[][] bounds = {
+                {"00000000000000000000000000000000", "7FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF"},
+                {"C0000000000000000000000000000000", "3FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF"}, // wraparound
+                {hash("key7"), hash("key7")}
+        };
+        for (String[] bound : bounds) {
+            List<Pair<String, String>> inRange = handler.getRangeData(bound[0], bound[1], true);
+            List<Pair<String, String>> outOfRange = handler.getRangeData(bound[0], bound[1], false);
+
+            assertEquals(51, inRange.size() + outOfRange.size());
+            for (Pair<String, String> kv : inRange) {
+                assertTrue(KVHash.inRange(kv.getLeft(), bound[0], bound[1]));
+                assertEquals(handler.getFromDB(kv.getLeft()), kv.getRight());
+            }
+            for (Pair<String, String> kv : outOfRange) {
+                assertFalse(KVHash.inRange(kv.getLeft(), bound[0], bound[1]));
+            }
+        }
+    }
+
+    @Test
+    public void reopenAfterSnapshotTest() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            handler.insertInDB(hash("key" + i), "value" + i);
+        }
+        handler.close(); // writes the snapshot of the index
+
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        handler.insertInDB(hash("key20"), "value20");
+        handler.deleteFromDB(hash("key0"));
+        handler.close();
+
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertEquals(20, handler.size());
+        assertNull(handler.getFromDB(hash("key0")));
+        assertEquals("value20", handler.getFromDB(hash("key20")));
+    }
+
+    @Test
+    public void compactionDropsDeadRecordsTest() throws IOException {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                handler.insertInDB(hash("key" + i), "value" + round + "-" + i);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            handler.deleteFromDB(hash("key" + i));
+        }
+        long sizeBefore = logSize();
+
+        handler.compact();
+
+        assertTrue(logSize() < sizeBefore);
+        assertEquals(10, handler.size());
+        assertNull(handler.getFromDB(hash("key3")));
+        assertEquals("value4-15", handler.getFromDB(hash("key15")));
+
+        // the compacted log must restore the same state
+        handler.close();
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertEquals(10, handler.size());
+        assertNull(handler.getFromDB(hash("key3")));
+        assertEquals("value4-19", handler.getFromDB(hash("key19")));
+    }
+
+    @Test
+    public void corruptTailIsTruncatedTest() throws IOException {
+        handler.insertInDB(hash("key1"), "value1");
+        handler.insertInDB(hash("key2"), "value2");
+        handler.close();
+        // without a snapshot the log is replayed and every record is checked
+        Files.delete(LOG_DIR.resolve("index.snapshot"));
+        Path segment = LOG_DIR.resolve("segment-00000001.log");
+        byte[] content = Files.readAllBytes(segment);
+        content[content.length - 1] ^= 0x01; // the last value was not written completely
+        Files.write(segment, content);
+
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertEquals("value1", handler.getFromDB(hash("key1")));
+        assertNull(handler.getFromDB(hash("key2")));
+        assertEquals(1, handler.size());
+        // new records are appended behind the last valid record
+        handler.insertInDB(hash("key3"), "value3");
+        assertEquals("value3", handler.getFromDB(hash("key3")));
+    }
+
+    @Test
+    public void damagedRecordInSealedSegmentIsSkippedTest() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            handler.insertInDB(hash("key" + i), "value" + i);
+        }
+        handler.close();
+        Files.delete(LOG_DIR.resolve("index.snapshot"));
+        Path segment = LOG_DIR.resolve("segment-00000001.log");
+        long sealedSize = Files.size(segment);
+        byte[] content = Files.readAllBytes(segment);
+        content[32] ^= 0x01; // the last byte of the value of the first record
+        Files.write(segment, content);
+
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertNull(handler.getFromDB(hash("key0")));
+        for (int i = 1; i < 20; i++) {
+            assertEquals("value" + i, handler.getFromDB(hash("key" + i)));
+        }
+        // a sealed segment is never cut off
+        assertEquals(sealedSize, Files.size(segment));
+    }
+
+    @Test
+    public void oldLayoutIsSetAsideTest() throws IOException {
+        handler.insertInDB(hash("key1"), "value1");
+        handler.close();
+        Files.delete(LOG_DIR.resolve("log.format"));
+
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertEquals(0, handler.size());
+        Path setAside = LOG_DIR.resolve("segment-00000001.log.old");
+        assertTrue(Files.exists(setAside));
+        Files.delete(setAside);
+    }
+
+    @Test
+    public void plainKeysTest() throws IOException {
+        handler.insertInDB("plain key", "value");
+        handler.insertInDB(hash("hashed").toLowerCase(), "lowercase");
+        handler.close();
+        handler = new LogPersistenceHandler(LOG_DIR, false, 256);
+        assertEquals("value", handler.getFromDB("plain key"));
+        assertEquals("lowercase", handler.getFromDB(hash("hashed").toLowerCase()));
+    }
+
+    private long logSize() throws IOException {
+        try (Stream<Path> files = Files.list(LOG_DIR)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    @AfterEach
+    public void deleteLog() {
+        handler.deleteAllData();
+        handler.close();
+    }
+}
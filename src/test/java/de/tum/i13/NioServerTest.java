@@ -0,0 +1,232 @@
+package de.tum.i13;
+
+import de.tum.i13.KVStore.KVStore;
+import de.tum.i13.KVserver.nio.Server;
+import de.tum.i13.KVserver.nio.SimpleNioServer;
+import de.tum.i13.KVserver.nio.ThreadPerConnectionServer;
+import de.tum.i13.shared.CommandProcessor;
+import de.tum.i13.shared.KVMessage;
+import de.tum.i13.shared.Pair;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class NioServerTest {
+    public static Integer port = 5155;
+    public static Integer reactorsOnlyPort = 5156;
+    public static Integer busyWorkersPort = 5157;
+    public static Integer threadPerConnectionPort = 5158;
+    public static Integer putAllPort = 5159;
+
+    /**
+     * Answers every request with its length, so the tests see how the server cut the requests
+     */
+    private static class LengthProcessor implements CommandProcessor {
+        private final long delayNanos;
+
+        LengthProcessor() {
+            this(0);
+        }
+
+        /**
+         * @param delayNanos time every request takes to be processed
+         */
+        LengthProcessor(long delayNanos) {
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public String process(String command) {
+            if (delayNanos > 0) {
+                LockSupport.parkNanos(delayNanos);
+            }
+            return command.replace("\r\n", "").length() + "\r\n";
+        }
+
+        @Override
+        public String connectionAccepted(InetSocketAddress address, InetSocketAddress remoteAddress) {
+            return "connected\r\n";
+        }
+
+        @Override
+        public void connectionClosed(InetAddress address) {
+        }
+    }
+
+    /**
+     * Accepts every put, like a KVserver that is responsible for all keys
+     */
+    private static class PutProcessor extends LengthProcessor {
+        @Override
+        public String process(String command) {
+            return "put_success " + command.split(" ")[1] + "\r\n";
+        }
+    }
+
+    @BeforeAll
+    public static void startServers() throws Exception {
+        startServer(new SimpleNioServer(new LengthProcessor(), 2, 2, 16), port);
+        startServer(new SimpleNioServer(new LengthProcessor(), 2, 0, 0), reactorsOnlyPort);
+        // one worker with room for one waiting connection, the reactors have to process most requests themselves
+        startServer(new SimpleNioServer(new LengthProcessor(100000), 2, 1, 1), busyWorkersPort);
+        startServer(new ThreadPerConnectionServer(new LengthProcessor()), threadPerConnectionPort);
+        startServer(new ThreadPerConnectionServer(new PutProcessor()), putAllPort);
+        Thread.sleep(200);
+    }
+
+    private static void startServer(Server server, int port) throws IOException {
+        server.bindSockets("127.0.0.1", port);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * Opens the connections at the same time and sends all requests of a connection at once. Request i of a
+     * connection is i + 1 characters long, so the answers show whether each connection was answered in order.
+     */
+    private static void assertPipelinedInOrder(int port, int connections, int requests) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(connections);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            results.add(clients.submit(() -> {
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    OutputStream out = socket.getOutputStream();
+                    assertEquals("connected", in.readLine());
+
+                    StringBuilder pipelined = new StringBuilder();
+                    for (int i = 0; i < requests; i++) {
+                        pipelined.append("r".repeat(i + 1)).append("\r\n");
+                    }
+                    out.write(pipelined.toString().getBytes());
+                    out.flush();
+                    for (int i = 0; i < requests; i++) {
+                        assertEquals(String.valueOf(i + 1), in.readLine());
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestsInOneReadAreSplitTest() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertEquals("connected", in.readLine());
+
+            out.write("get a\r\n\r\nput b 12\r\nget".getBytes());
+            out.flush();
+            assertEquals("5", in.readLine());
+            assertEquals("8", in.readLine());
+
+            out.write(" cc\r\n".getBytes());
+            out.flush();
+            assertEquals("6", in.readLine());
+        }
+    }
+
+    @Test
+    public void largeRequestOverManyReadsTest() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertEquals("connected", in.readLine());
+
+            String value = "v".repeat(200000);
+            out.write(("put key " + value).getBytes());
+            out.flush();
+            Thread.sleep(50);
+            out.write("\r".getBytes()); // the \r\n is split over two reads as well
+            out.flush();
+            Thread.sleep(50);
+            out.write("\nget key\r\n".getBytes());
+            out.flush();
+            assertEquals(String.valueOf(value.length() + 8), in.readLine());
+            assertEquals("7", in.readLine());
+        }
+    }
+
+    @Test
+    public void connectionsOnSeveralReactorsTest() throws Exception {
+        // without workers every request is processed on the reactor of its connection
+        assertPipelinedInOrder(reactorsOnlyPort, 8, 200);
+    }
+
+    @Test
+    public void busyWorkersKeepRequestsInOrderTest() throws Exception {
+        // a request the reactor processes itself must not overtake the requests of its connection the worker holds
+        assertPipelinedInOrder(busyWorkersPort, 8, 200);
+    }
+
+    @Test
+    public void threadPerConnectionServerTest() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", threadPerConnectionPort)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertEquals("connected", in.readLine());
+
+            out.write("get a\r\n\r\nput b 12\r\nget".getBytes());
+            out.flush();
+            assertEquals("5", in.readLine());
+            assertEquals("8", in.readLine());
+
+            out.write(" cc\r\n".getBytes());
+            out.flush();
+            assertEquals("6", in.readLine());
+        }
+        assertPipelinedInOrder(threadPerConnectionPort, 8, 200);
+    }
+
+    @Test
+    public void putAllLargerThanSocketBuffersTest() {
+        // the requests and the answers of the batch are several megabytes, more than the socket buffers hold
+        Map<String, String> kvs = new LinkedHashMap<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            kvs.put("key" + i, "value" + i);
+        }
+        KVStore kvStore = new KVStore();
+        kvStore.buildConnection(new Pair<>("127.0.0.1", putAllPort));
+        List<KVMessage> answers = assertTimeoutPreemptively(Duration.ofSeconds(60), () -> kvStore.putAll(kvs));
+        kvStore.closeCurrentConnection();
+        assertEquals(kvs.size(), answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            assertEquals("put_success key" + i, answers.get(i).toString());
+        }
+    }
+}
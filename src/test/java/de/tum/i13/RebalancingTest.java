@@ -0,0 +1,130 @@
+package de.tum.i13;
+
+import de.tum.i13.KVStore.KVStore;
+import de.tum.i13.KVserver.kv.persistence.LogPersistenceHandler;
+import de.tum.i13.KVserver.nio.StartKVServer;
+import de.tum.i13.ecs.StartECS;
+import de.tum.i13.shared.KVHash;
+import de.tum.i13.shared.Pair;
+import de.tum.i13.shared.Range;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Grows a cluster of two KVServers to three. The third server rejoins with data it kept on disk: an outdated value
+ * of a key and a key that was deleted while it was offline.
+ */
+public class RebalancingTest {
+    public static Integer portKV = 5173;
+    public static Integer portKV1 = 5174;
+    public static Integer portKV2 = 5175;
+    public static Integer portECS = 5463;
+    private static final int KEYS = 40;
+
+    @BeforeAll
+    public static void serverSetup() throws InterruptedException {
+        Thread thECS = new Thread(() -> {
+            try {
+                StartECS.main(new String[]{"-p", portECS.toString()});
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thECS.start(); // started the ECS
+        Thread.sleep(2000);
+
+        startKVServer(new String[]{"-p" + portKV.toString(), "-b 127.0.0.1:" + portECS});
+        startKVServer(new String[]{"-p" + portKV1.toString(), "-b 127.0.0.1:" + portECS});
+        Thread.sleep(2000);
+    }
+
+    private static void startKVServer(String[] args) {
+        new Thread(() -> {
+            try {
+                StartKVServer.main(args);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }).start();
+    }
+
+    @Test
+    public void growWithKeptDataTest() throws Exception {
+        KVStore kvStore = new KVStore();
+        kvStore.buildConnection(new Pair<>("127.0.0.1", portKV));
+        for (int i = 0; i < KEYS; i++) {
+            assertThat(kvStore.put("key" + i, "value" + i).toString(), is(equalTo("put_success key" + i)));
+        }
+        kvStore.closeCurrentConnection();
+
+        // the data the third server kept from before it went offline
+        List<Range> ranges = KVHash.hashMetaData(List.of(new Pair<>("127.0.0.1", portKV),
+                new Pair<>("127.0.0.1", portKV1), new Pair<>("127.0.0.1", portKV2)));
+        Range rejoinedRange = null;
+        for (Range range : ranges) {
+            if (range.getPort() == portKV2) {
+                rejoinedRange = range;
+            }
+        }
+        String outdatedKey = null;
+        for (int i = 0; outdatedKey == null; i++) {
+            if (inRange("key" + i, rejoinedRange)) {
+                outdatedKey = "key" + i;
+            }
+        }
+        String deletedKey = null;
+        for (int i = 0; deletedKey == null; i++) {
+            if (inRange("deleted" + i, rejoinedRange)) {
+                deletedKey = "deleted" + i;
+            }
+        }
+        Path dataDir = Files.createTempDirectory("rebalancing");
+        LogPersistenceHandler keptData = new LogPersistenceHandler(dataDir.resolve("log-" + portKV2), false);
+        keptData.insertInDB(hash(outdatedKey), "outdated");
+        keptData.insertInDB(hash(deletedKey), "deleted");
+        keptData.close();
+
+        startKVServer(new String[]{"-p" + portKV2.toString(), "-b 127.0.0.1:" + portECS, "-k", "-d", dataDir.toString()});
+        Thread.sleep(5000); // the keys are handed over and replicated
+
+        // every key is still stored by its coordinator, the keys of the third server were handed over to it
+        for (int i = 0; i < KEYS; i++) {
+            kvStore = new KVStore();
+            kvStore.buildConnection(new Pair<>("127.0.0.1", coordinator("key" + i, ranges).getPort()));
+            assertThat(kvStore.get("key" + i).toString(), is(equalTo("get_success key" + i + " value" + i)));
+            kvStore.closeCurrentConnection();
+        }
+        kvStore = new KVStore();
+        kvStore.buildConnection(new Pair<>("127.0.0.1", portKV2));
+        assertThat(kvStore.get(outdatedKey).toString(), is(equalTo("get_success " + outdatedKey + " value"
+                + outdatedKey.substring("key".length()))));
+        assertThat(kvStore.get(deletedKey).toString(), is(equalTo("get_error " + deletedKey)));
+        kvStore.closeCurrentConnection();
+    }
+
+    private static String hash(String key) {
+        return KVHash.bytesToHex(KVHash.hashKey(key));
+    }
+
+    private static Range coordinator(String key, List<Range> ranges) {
+        for (Range range : ranges) {
+            if (inRange(key, range)) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    private static boolean inRange(String key, Range range) {
+        return KVHash.inRange(hash(key), range.getLowerBound(), range.getUpperBound());
+    }
+}
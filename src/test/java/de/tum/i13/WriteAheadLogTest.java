@@ -0,0 +1,132 @@
+package de.tum.i13;
+
+import de.tum.i13.KVserver.kv.KVManager;
+import de.tum.i13.KVserver.kv.KVManagerLRU;
+import de.tum.i13.KVserver.kv.persistence.LogPersistenceHandler;
+import de.tum.i13.KVserver.kv.persistence.WriteAheadLog;
+import de.tum.i13.shared.KVHash;
+import de.tum.i13.shared.Range;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class WriteAheadLogTest {
+
+    private static final Path WAL_FILE = Path.of("testDB/writeAheadLogTest/wal.log");
+    private LogPersistenceHandler storage;
+
+    @BeforeEach
+    public void createStorage() throws IOException {
+        Files.deleteIfExists(WAL_FILE);
+        storage = new LogPersistenceHandler(Path.of("testDB/writeAheadLogTest/log"), true);
+    }
+
+    @Test
+    public void replayRestoresWritesTest() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.NONE, 100);
+        wal.logPut("key1", "value1");
+        wal.logPut("key2", "value2");
+        wal.logPut("key1", "updated");
+        wal.logDelete("key2");
+        wal.close(); // the server crashed before a checkpoint
+
+        wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.NONE, 100);
+        assertEquals(4, wal.replay(storage));
+        assertEquals("updated", storage.getFromDB("key1"));
+        assertNull(storage.getFromDB("key2"));
+        assertEquals(0, wal.size());
+        wal.close();
+    }
+
+    @Test
+    public void incompleteRecordIsSkippedTest() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.NONE, 100);
+        wal.logPut("key1", "value1");
+        wal.close();
+        // the write of the next record was interrupted
+        Files.write(WAL_FILE, new byte[]{1, 0, 0}, StandardOpenOption.APPEND);
+
+        wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.NONE, 100);
+        assertEquals(1, wal.replay(storage));
+        assertEquals("value1", storage.getFromDB("key1"));
+        wal.close();
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.ALWAYS, 100);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int writer = t;
+            writers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        wal.logPut("key" + writer + "-" + i, "value" + i);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(400, wal.replay(storage));
+        assertEquals(400, storage.size());
+        assertEquals("value49", storage.getFromDB("key7-49"));
+        wal.close();
+    }
+
+    @Test
+    public void keysThatLeftTheRangeStayDeletedTest() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.NONE, 100);
+        KVManager kvManager = new KVManagerLRU(1);
+        Range ring = new Range("127.0.0.1", 5153, "00000000000000000000000000000000", "00000000000000000000000000000000");
+        kvManager.setPersistenceHandler(storage);
+        kvManager.setWriteAheadLog(wal, Long.MAX_VALUE);
+        kvManager.setLocalWriteRange(ring);
+        kvManager.setWriteRanges(List.of(ring));
+        kvManager.setReplicationData(List.of(ring));
+        kvManager.updateLocalRanges();
+        kvManager.server_stopped = false;
+        kvManager.put("key1", "value1", false);
+        kvManager.put("key2", "value2", false); // evicts key1 onto the disk
+        kvManager.flushPendingWrites();
+        String keyHash = KVHash.bytesToHex(KVHash.hashKey("key1"));
+        assertEquals("value1", storage.getFromDB(keyHash));
+
+        // the range of this server shrinks to the whole ring except key1
+        Range shrunk = new Range("127.0.0.1", 5153, keyHash, keyHash);
+        kvManager.setLocalWriteRange(shrunk);
+        kvManager.setWriteRanges(List.of(shrunk));
+        kvManager.setReplicationData(List.of(shrunk));
+        kvManager.updateLocalRanges();
+        kvManager.deleteAllOutOfReadRangeData();
+        assertNull(storage.getFromDB(keyHash));
+        wal.close(); // the server crashed before a checkpoint
+
+        wal = new WriteAheadLog(WAL_FILE, WriteAheadLog.SyncMode.NONE, 100);
+        wal.replay(storage);
+        assertNull(storage.getFromDB(keyHash));
+        wal.close();
+    }
+
+    @AfterEach
+    public void deleteStorage() throws IOException {
+        storage.deleteAllData();
+        storage.close();
+        Files.deleteIfExists(WAL_FILE);
+    }
+}